@@ -0,0 +1,22 @@
+package io.github.holo314.coeffect.compiletime.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method without parameters that only reads its context and has no side effects, so its result cannot change within a single extent.<br>
+ * For example:
+ * <pre>
+ *     &#064;ContextAccessor
+ *     &#064;WithContext(Tenant.class)
+ *     public static String tenantId() {
+ *         return Coeffect.get(Tenant.class).id();
+ *     }
+ * </pre>
+ * The {@code CoeffectLoopInvariant} check treats invocations of such methods like {@code Coeffect.get(...)}, and suggests reading them once before loops that do not bind any context.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface ContextAccessor {}
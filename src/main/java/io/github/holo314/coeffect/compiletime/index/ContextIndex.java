@@ -0,0 +1,239 @@
+package io.github.holo314.coeffect.compiletime.index;
+
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact binary index of the {@code @WithContext} declarations of the classes of a single module, stored in {@value #RESOURCE}.<br>
+ * The index covers every class of the module and lists every method of a covered class, including the methods without context.
+ * A method that is missing from the index is not assumed to be context free, its context is read from the annotations of the classfile instead, so a mismatch between the method keys of the index and of the compiler cannot hide a requirement.
+ * Only the string table and the class table are decoded when the index is read, the methods of a class are decoded the first time the class is queried.
+ * <p>
+ * Layout (all integers are big-endian {@code int}s, strings are UTF-8):
+ * <pre>
+ *     magic, version
+ *     string count, (length, bytes)*
+ *     class count, (class name string, offset of the methods of the class from the start of the methods section)*
+ *     methods section: per class: method count, (method key string, context count, (context type string)*)*
+ * </pre>
+ * Classes are identified by their binary name, and methods by their name and the erasure of their parameters, e.g. {@code foo(java.lang.String,int[])}.
+ */
+public final class ContextIndex {
+    public static final String RESOURCE = "META-INF/coeffect/context.idx";
+    private static final int MAGIC = 0x43465831; // CFX1
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final Map<String, Integer> classOffsets;
+    private final Map<String, Map<String, List<String>>> decoded = new HashMap<>();
+
+    private ContextIndex(ByteBuffer buffer, String[] strings, Map<String, Integer> classOffsets) {
+        this.buffer = buffer;
+        this.strings = strings;
+        this.classOffsets = classOffsets;
+    }
+
+    /**
+     * @param classes The context of every method, by binary class name and method key. Methods without context are mapped to an empty list
+     */
+    public static void write(Map<String, Map<String, List<String>>> classes, OutputStream out)
+            throws IOException {
+        var stringIds = new LinkedHashMap<String, Integer>();
+        var methods = new ByteArrayOutputStream();
+        var methodsOut = new DataOutputStream(methods);
+        var classTable = new LinkedHashMap<Integer, Integer>();
+        for (var clazz : classes.entrySet()) {
+            classTable.put(stringId(stringIds, clazz.getKey()), methodsOut.size());
+            methodsOut.writeInt(clazz.getValue().size());
+            for (var method : clazz.getValue().entrySet()) {
+                methodsOut.writeInt(stringId(stringIds, method.getKey()));
+                methodsOut.writeInt(method.getValue().size());
+                for (var type : method.getValue()) {
+                    methodsOut.writeInt(stringId(stringIds, type));
+                }
+            }
+        }
+
+        var data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(stringIds.size());
+        for (var string : stringIds.keySet()) {
+            var bytes = string.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        data.writeInt(classTable.size());
+        for (var entry : classTable.entrySet()) {
+            data.writeInt(entry.getKey());
+            data.writeInt(entry.getValue());
+        }
+        methods.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * @param erasedParameters The erasure of the parameter types of the method
+     * @return The key of the method in the index
+     */
+    public static String methodKey(CharSequence name, List<? extends TypeMirror> erasedParameters) {
+        var key = new StringBuilder().append(name).append('(');
+        for (var i = 0; i < erasedParameters.size(); i++) {
+            if (i != 0) {
+                key.append(',');
+            }
+            appendTypeName(key, erasedParameters.get(i));
+        }
+        return key.append(')').toString();
+    }
+
+    /**
+     * Varargs parameters are written as arrays, so the key does not depend on whether the method was read from source or from a classfile
+     */
+    private static void appendTypeName(StringBuilder key, TypeMirror type) {
+        if (type instanceof ArrayType array) {
+            appendTypeName(key, array.getComponentType());
+            key.append("[]");
+        } else {
+            key.append(type);
+        }
+    }
+
+    private static int stringId(Map<String, Integer> stringIds, String string) {
+        return stringIds.computeIfAbsent(string, ignore -> stringIds.size());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer does not contain an index of a supported version
+     */
+    public static ContextIndex read(ByteBuffer buffer) {
+        buffer = buffer.duplicate();
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a Coeffect context index");
+        }
+        var version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported Coeffect context index version " + version);
+        }
+        var strings = new String[buffer.getInt()];
+        for (var i = 0; i < strings.length; i++) {
+            var bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        var classCount = buffer.getInt();
+        var relativeOffsets = new HashMap<String, Integer>();
+        for (var i = 0; i < classCount; i++) {
+            relativeOffsets.put(strings[buffer.getInt()], buffer.getInt());
+        }
+        var methodsStart = buffer.position();
+        var classOffsets = new HashMap<String, Integer>();
+        relativeOffsets.forEach((clazz, offset) -> classOffsets.put(clazz, methodsStart + offset));
+        return new ContextIndex(buffer, strings, classOffsets);
+    }
+
+    /**
+     * @return The context declared by the method, or null if the index has no entry for the method
+     */
+    public List<String> contextOf(String className, String methodKey) {
+        var methods = decoded.get(className);
+        if (methods == null) {
+            var offset = classOffsets.get(className);
+            if (offset == null) {
+                return null;
+            }
+            methods = decodeMethods(offset);
+            decoded.put(className, methods);
+        }
+        return methods.get(methodKey);
+    }
+
+    private Map<String, List<String>> decodeMethods(int offset) {
+        var methods = new HashMap<String, List<String>>();
+        var methodCount = buffer.getInt(offset);
+        var position = offset + Integer.BYTES;
+        for (var i = 0; i < methodCount; i++) {
+            var key = strings[buffer.getInt(position)];
+            var contextCount = buffer.getInt(position + Integer.BYTES);
+            position += 2 * Integer.BYTES;
+            var context = new ArrayList<String>(contextCount);
+            for (var j = 0; j < contextCount; j++) {
+                context.add(strings[buffer.getInt(position)]);
+                position += Integer.BYTES;
+            }
+            methods.put(key, List.copyOf(context));
+        }
+        return methods;
+    }
+
+    /**
+     * Loads every index on the classpath of the compilation. Indices in directories are memory-mapped, indices inside jars are read once into memory (jar entries are compressed, so they cannot be mapped)
+     *
+     * @return The indices of all the modules on the classpath by their container (see {@link #containerOf}), an unreadable index is skipped as if the module had no index
+     */
+    public static Map<String, ContextIndex> load(JavaFileManager fileManager) {
+        var result = new HashMap<String, ContextIndex>();
+        var slash = RESOURCE.lastIndexOf('/');
+        var packageName = RESOURCE.substring(0, slash).replace('/', '.');
+        try {
+            for (var file : fileManager.list(StandardLocation.CLASS_PATH, packageName, Set.of(JavaFileObject.Kind.OTHER), false)) {
+                var container = containerOf(file, RESOURCE);
+                if (container == null || result.containsKey(container)) {
+                    continue;
+                }
+                try {
+                    result.put(container, read(contentOf(file)));
+                } catch (IOException | RuntimeException ignore) {
+                    // fall back to the annotations of the classfiles
+                }
+            }
+        } catch (IOException | RuntimeException ignore) {
+            // fall back to the annotations of the classfiles
+        }
+        return result;
+    }
+
+    /**
+     * The container of a file is its URI without its path inside the classpath entry, e.g. {@code jar:file:///x.jar!/} for a file in a jar or {@code file:///x/classes/} for a file in a directory.
+     * A class is only looked up in the index of its own container, so classes with the same name in different classpath entries do not shadow each other.
+     *
+     * @param relativePath The path of the file inside its classpath entry, e.g. {@code test/Library.class}
+     * @return The container of the file, or null if the file is not at the given path
+     */
+    public static String containerOf(JavaFileObject file, String relativePath) {
+        var uri = file.toUri().toString(); // jar URIs are opaque, so only the whole string is meaningful
+        return uri.endsWith("/" + relativePath) ? uri.substring(0, uri.length() - relativePath.length()) : null;
+    }
+
+    private static ByteBuffer contentOf(JavaFileObject file)
+            throws IOException {
+        var uri = file.toUri();
+        if ("file".equals(uri.getScheme())) {
+            try (var channel = FileChannel.open(Path.of(uri), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        try (var in = file.openInputStream()) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.holo314.coeffect.compiletime.index;
+
+import com.google.auto.service.AutoService;
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes the {@link ContextIndex} of the compiled classes to {@value ContextIndex#RESOURCE} in the class output.<br>
+ * The processor does nothing unless the {@value #OPTION} option is set to {@code true} (e.g. {@code -Acoeffect.index=true}).
+ * It never claims any annotation, so it does not interfere with other processors.
+ */
+@AutoService(Processor.class)
+public class ContextIndexProcessor
+        extends AbstractProcessor {
+    public static final String OPTION = "coeffect.index";
+
+    private final Map<String, Map<String, List<String>>> classes = new LinkedHashMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Set.of(OPTION);
+    }
+
+    /**
+     * Without the option the processor supports no annotation, so the compiler never runs it
+     */
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return enabled() ? Set.of("*") : Set.of();
+    }
+
+    private boolean enabled() {
+        return isInitialized() && Boolean.parseBoolean(processingEnv.getOptions().get(OPTION));
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!enabled()) {
+            return false;
+        }
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        for (var root : roundEnv.getRootElements()) {
+            if (root instanceof TypeElement type) {
+                collect(type);
+            }
+        }
+        return false;
+    }
+
+    private void collect(TypeElement type) {
+        var methods = new TreeMap<String, List<String>>();
+        for (var member : type.getEnclosedElements()) {
+            if (member instanceof TypeElement nested) {
+                collect(nested);
+            } else if (member instanceof ExecutableElement method) {
+                // every method is listed, so a method that is missing from the index falls back to the annotations
+                // the same format used by the plugin for the types it reads from the annotations
+                methods.put(methodKey(method), contextOf(method).stream().map(TypeMirror::toString).toList());
+            }
+        }
+        classes.put(processingEnv.getElementUtils().getBinaryName(type).toString(), methods);
+    }
+
+    private String methodKey(ExecutableElement method) {
+        var typeUtils = processingEnv.getTypeUtils();
+        var parameters = method.getParameters()
+                               .stream()
+                               .map(parameter -> typeUtils.erasure(parameter.asType()))
+                               .toList();
+        return ContextIndex.methodKey(method.getSimpleName(), parameters);
+    }
+
+    /**
+     * @return The types in the {@link WithContext} annotation of the element
+     */
+    static List<TypeMirror> contextOf(Element element) {
+        var context = new ArrayList<TypeMirror>();
+        for (var annotation : element.getAnnotationMirrors()) {
+            var annotationType = (TypeElement)annotation.getAnnotationType().asElement();
+            if (!annotationType.getQualifiedName().contentEquals(WithContext.class.getCanonicalName())) {
+                continue;
+            }
+            annotation.getElementValues().forEach((key, value) -> {
+                if (key.getSimpleName().contentEquals("value")) {
+                    addTypes(context, value.getValue());
+                }
+            });
+        }
+        return context;
+    }
+
+    /**
+     * Array valued elements with a single value may be written without braces, in which case the value is the type itself
+     */
+    private static void addTypes(List<TypeMirror> context, Object value) {
+        if (value instanceof List<?> values) {
+            for (var element : values) {
+                addTypes(context, ((AnnotationValue)element).getValue());
+            }
+        } else if (value instanceof TypeMirror type) {
+            context.add(type);
+        }
+    }
+
+    private void writeIndex() {
+        try (var out = processingEnv.getFiler()
+                                    .createResource(StandardLocation.CLASS_OUTPUT, "", ContextIndex.RESOURCE)
+                                    .openOutputStream()) {
+            ContextIndex.write(classes, out);
+        } catch (IOException e) {
+            processingEnv.getMessager()
+                         .printMessage(Diagnostic.Kind.WARNING, "[Coeffect] Could not write the context index: " + e.getMessage());
+        }
+    }
+}
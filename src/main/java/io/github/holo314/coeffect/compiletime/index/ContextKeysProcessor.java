@@ -0,0 +1,101 @@
+package io.github.holo314.coeffect.compiletime.index;
+
+import com.google.auto.service.AutoService;
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+import io.github.holo314.coeffect.runtime.CoeffectKeys;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes the context types of the module to {@value CoeffectKeys#RESOURCE} in the class output, so the runtime can set up all of them at startup (see {@code Coeffect#preload(ClassLoader)}).<br>
+ * Every {@code Coeffect.get(X.class)} that passes the plugin is either inside a method annotated with {@code @WithContext(X.class)} or inside an extent that binds {@code X}, and binding creates the type anyway, so the types of the {@link WithContext} annotations of the module are the types it reads.
+ * The processor does nothing unless the {@value #OPTION} option is set to {@code true} (e.g. {@code -Acoeffect.keys=true}).
+ */
+@AutoService(Processor.class)
+public class ContextKeysProcessor
+        extends AbstractProcessor {
+    public static final String OPTION = "coeffect.keys";
+
+    private final Set<String> keys = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Set.of(OPTION);
+    }
+
+    /**
+     * Without the option the processor supports no annotation, so the compiler never runs it
+     */
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return enabled() ? Set.of("*") : Set.of();
+    }
+
+    private boolean enabled() {
+        return isInitialized() && Boolean.parseBoolean(processingEnv.getOptions().get(OPTION));
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!enabled()) {
+            return false;
+        }
+        if (roundEnv.processingOver()) {
+            writeKeys();
+            return false;
+        }
+        for (var root : roundEnv.getRootElements()) {
+            if (root instanceof TypeElement type) {
+                collect(type);
+            }
+        }
+        return false;
+    }
+
+    private void collect(TypeElement type) {
+        for (var member : type.getEnclosedElements()) {
+            if (member instanceof TypeElement nested) {
+                collect(nested);
+            } else if (member instanceof ExecutableElement method) {
+                for (var context : ContextIndexProcessor.contextOf(method)) {
+                    // primitives and arrays cannot be loaded by name, they are created on first use
+                    if (context instanceof DeclaredType declared && declared.asElement() instanceof TypeElement key) {
+                        keys.add(processingEnv.getElementUtils().getBinaryName(key).toString());
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeKeys() {
+        try (var out = new OutputStreamWriter(processingEnv.getFiler()
+                                                           .createResource(StandardLocation.CLASS_OUTPUT, "", CoeffectKeys.RESOURCE)
+                                                           .openOutputStream(), StandardCharsets.UTF_8)) {
+            for (var key : keys) {
+                out.write(key);
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager()
+                         .printMessage(Diagnostic.Kind.WARNING, "[Coeffect] Could not write the context keys: " + e.getMessage());
+        }
+    }
+}
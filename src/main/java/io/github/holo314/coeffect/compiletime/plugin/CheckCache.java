@@ -0,0 +1,245 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.util.Context;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An on-disk cache of compilation units that passed all the checks, so unchanged units can skip the checks in later builds.<br>
+ * An entry records the digest of the source of the unit, and the signature of every class the unit references together with all of their supertypes: the classes of all the symbols and the types of all the expressions of the unit, so the static types of receivers and qualifiers are included as well.
+ * The signature of a class covers its generic supertypes, the full generic types of all its methods and fields, and the {@code @WithContext} and {@code @DelegateContext} declarations of all its methods, so any change to the context of a referenced method, to the type of a carrier returned by a method or stored in a field, a new overload anywhere in the hierarchy of a receiver, or a change to the hierarchy of the unit invalidates the entry.<br>
+ * Entries are also tied to the exact build of the plugin (see {@link #FORMAT}), so an upgrade that changes the checks does not reuse the results of the old checks.<br>
+ * Only clean units are cached, a unit with violations fails the build and has to be checked again anyway. The cache is best-effort, unreadable entries count as misses and write failures are ignored.
+ */
+public final class CheckCache {
+    private static final Context.Key<CheckCache> KEY = new Context.Key<>();
+    /**
+     * The first line of every entry, entries written by another build of the plugin are ignored, the checks themselves may have changed.
+     * The build is identified by the digest of the classfiles of the plugin, which does not depend on the manifest. Null if the classfiles cannot be read, in which case the cache is disabled
+     */
+    private static final String FORMAT = pluginDigest();
+
+    private final Path directory;
+    private final ContextResolver resolver;
+    private final ContextTypes contextTypes;
+    private final InheritanceUtils inheritance;
+    private final Types types;
+    private final JavacElements elements;
+    private final Map<Symbol.ClassSymbol, String> signatures = new HashMap<>();
+
+    private CheckCache(Context context, Path directory) {
+        context.put(KEY, this);
+        this.directory = directory;
+        this.resolver = ContextResolver.instance(context);
+        this.contextTypes = ContextTypes.instance(context);
+        this.inheritance = InheritanceUtils.instance(context);
+        this.types = Types.instance(context);
+        this.elements = JavacElements.instance(context);
+    }
+
+    /**
+     * @param directory The directory of the cache, used only when the instance is first created for the compilation
+     */
+    public static CheckCache instance(Context context, Path directory) {
+        var instance = context.get(KEY);
+        return instance == null ? new CheckCache(context, directory) : instance;
+    }
+
+    /**
+     * @return true iff the unit was clean in a previous build, and neither its source nor any of its dependencies changed since
+     */
+    public boolean isClean(CompilationUnitTree compilationUnit) {
+        if (FORMAT == null) {
+            return false;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(entryOf(compilationUnit), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return false;
+        }
+        var sourceDigest = sourceDigest(compilationUnit);
+        if (sourceDigest == null || lines.size() < 2 || !lines.get(0).equals(FORMAT) || !lines.get(1).equals(sourceDigest)) {
+            return false;
+        }
+        for (var line : lines.subList(2, lines.size())) {
+            var separator = line.indexOf(' ');
+            if (separator < 0) {
+                return false;
+            }
+            var clazz = elements.getTypeElement(line.substring(0, separator));
+            if (!(clazz instanceof Symbol.ClassSymbol classSymbol) || !signatureOf(classSymbol).equals(line.substring(separator + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that the unit is clean, does nothing if the source of the unit cannot be read
+     */
+    public void storeClean(CompilationUnitTree compilationUnit) {
+        var sourceDigest = FORMAT == null ? null : sourceDigest(compilationUnit);
+        if (sourceDigest == null) {
+            return;
+        }
+
+        var classes = new HashSet<Symbol.ClassSymbol>();
+        for (var clazz : referencedClasses(compilationUnit)) {
+            classes.add(clazz);
+            classes.addAll(inheritance.inheritanceFlatten(clazz));
+        }
+        var entries = new TreeMap<String, String>();
+        for (var clazz : classes) {
+            // local and anonymous classes can only be declared in the unit itself, so they are covered by the digest of the source
+            if (!clazz.isDirectlyOrIndirectlyLocal()) {
+                entries.put(clazz.getQualifiedName().toString(), signatureOf(clazz));
+            }
+        }
+
+        var content = new StringBuilder().append(FORMAT).append('\n')
+                                         .append(sourceDigest).append('\n');
+        entries.forEach((clazz, signature) -> content.append(clazz).append(' ').append(signature).append('\n'));
+        try {
+            Files.createDirectories(directory);
+            var entry = entryOf(compilationUnit);
+            var temporary = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+            Files.writeString(temporary, content, StandardCharsets.UTF_8);
+            Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ignore) {
+            // the unit will be checked again in the next build
+        }
+    }
+
+    private Path entryOf(CompilationUnitTree compilationUnit) {
+        return directory.resolve(digest(compilationUnit.getSourceFile().toUri().toString()));
+    }
+
+    /**
+     * @return Every class that is named in the unit or is the type of one of its trees, e.g. the static type of every receiver and qualifier
+     */
+    private Set<Symbol.ClassSymbol> referencedClasses(CompilationUnitTree compilationUnit) {
+        var classes = new HashSet<Symbol.ClassSymbol>();
+        new TreeScanner<Void, Void>() {
+            @Override
+            public Void scan(Tree tree, Void unused) {
+                if (tree instanceof JCTree jcTree) {
+                    var symbol = TreeInfo.symbolFor(jcTree);
+                    if (symbol != null) {
+                        addClass(symbol instanceof Symbol.ClassSymbol ? symbol : symbol.enclClass());
+                    }
+                    var type = jcTree.type;
+                    while (type != null && type.hasTag(TypeTag.ARRAY)) {
+                        type = types.elemtype(type);
+                    }
+                    if (type != null && type.hasTag(TypeTag.CLASS)) {
+                        addClass(type.tsym);
+                    }
+                }
+                return super.scan(tree, unused);
+            }
+
+            private void addClass(Symbol symbol) {
+                if (symbol instanceof Symbol.ClassSymbol clazz) {
+                    classes.add(clazz);
+                }
+            }
+        }.scan(compilationUnit, null);
+        return classes;
+    }
+
+    /**
+     * @return The digest of the source, or null if the source cannot be read
+     */
+    private static String sourceDigest(CompilationUnitTree compilationUnit) {
+        try {
+            return digest(compilationUnit.getSourceFile().getCharContent(true).toString());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private String signatureOf(Symbol.ClassSymbol clazz) {
+        var signature = signatures.get(clazz);
+        if (signature != null) {
+            return signature;
+        }
+        // the generic types are used as they are, the checks read the type arguments of carriers
+        var content = new StringBuilder().append(clazz.flatName()).append(' ').append(clazz.type).append('\n');
+        content.append(clazz.getSuperclass()).append('\n');
+        for (var directInterface : clazz.getInterfaces()) {
+            content.append(directInterface).append('\n');
+        }
+        var members = new ArrayList<String>();
+        for (var member : clazz.members().getSymbols(symbol -> symbol.kind == Kinds.Kind.MTH || symbol.kind == Kinds.Kind.VAR)) {
+            if (member instanceof Symbol.MethodSymbol method) {
+                var delegation = resolver.delegationOf(method);
+                members.add(method.name + " " + method.type + " throws " + method.type.getThrownTypes()
+                            + contextTypes.namesOf(resolver.contextOf(method))
+                            + (delegation == null ? "" : delegation.variablePositions().stream().sorted().toList() + "" + delegation.variableNames().stream().sorted().toList()));
+            } else {
+                members.add(member.name + " " + member.type);
+            }
+        }
+        members.sort(null);
+        members.forEach(member -> content.append(member).append('\n'));
+
+        signature = digest(content.toString());
+        signatures.put(clazz, signature);
+        return signature;
+    }
+
+    private static String pluginDigest() {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            var location = Path.of(CheckCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(location)) {
+                try (var files = Files.walk(location)) {
+                    for (var file : files.filter(Files::isRegularFile).sorted().toList()) {
+                        digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                        digest.update(Files.readAllBytes(file));
+                    }
+                }
+            } else {
+                digest.update(Files.readAllBytes(location));
+            }
+            return "coeffect-check-cache 2 " + HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String digest(String content) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.google.auto.service.AutoService;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.fixes.SuggestedFix;
+import com.google.errorprone.matchers.Description;
+import com.sun.source.tree.BinaryTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompoundAssignmentTree;
+import com.sun.source.tree.DeconstructionPatternTree;
+import com.sun.source.tree.EnhancedForLoopTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.LambdaExpressionTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.NewClassTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.TryTree;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.api.JavacTrees;
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@AutoService(BugChecker.class)
+@BugPattern(
+        name = "CoeffectDeadBinding",
+        summary = """
+                  A Carrier#run/Carrier#call clause binds types that nothing inside the extent reads, every execution of the clause creates a Carrier and a ScopedValue binding for each of them.
+                  """,
+        severity = BugPattern.SeverityLevel.WARNING,
+        linkType = BugPattern.LinkType.CUSTOM,
+        link = "https://github.com/Holo314/coeffect"
+)
+public class CoeffectDeadBinding
+        extends BugChecker
+        implements BugChecker.MethodInvocationTreeMatcher {
+    private final boolean enabled;
+
+    @Inject
+    public CoeffectDeadBinding(ErrorProneFlags flags) {
+        this.enabled = flags.getBoolean(CoeffectPlugin.EXTRA_CHECKS_FLAG).orElse(false);
+    }
+
+    /**
+     * Matches {@code Carrier#run}/{@code Carrier#call} invocations whose operation is a lambda or a member reference, other operations cannot be inspected.<br>
+     * A binding is dead if a later {@code with} of the same chain binds the same type again, or if nothing inside the operation reads its type.
+     * The reads of the operation are the {@code Coeffect#get}/{@code Coeffect#getOr*} calls with a class literal, excluding reads inside a nested clause that binds the type again, together with the reads of the methods it calls (see {@link ReadScanner#call}).
+     * If the reads cannot be determined, only the bindings that are bound again are reported.
+     * Removing a binding that is bound again later in the chain does not change what the extent sees, so those bindings come with a fix that removes them, as long as their arguments have no side effects.
+     */
+    @Override
+    public Description matchMethodInvocation(MethodInvocationTree methodInv, VisitorState visitorState) {
+        if (!enabled) {
+            return Description.NO_MATCH;
+        }
+        var types = ContextTypes.instance(visitorState.context);
+        if (!isClause(methodInv, types) || methodInv.getArguments().isEmpty()) {
+            return Description.NO_MATCH;
+        }
+        var operation = methodInv.getArguments().getFirst();
+        if (!(operation instanceof LambdaExpressionTree) && !(operation instanceof MemberReferenceTree)) {
+            return Description.NO_MATCH;
+        }
+
+        var bindings = bindingsOf((JCTree.JCFieldAccess)methodInv.getMethodSelect(), types);
+        if (bindings.isEmpty()) {
+            return Description.NO_MATCH;
+        }
+        var scanner = new ReadScanner(visitorState);
+        scanner.scan(operation, ContextSet.EMPTY);
+
+        var deadTypes = ContextSet.EMPTY;
+        var laterBound = ContextSet.EMPTY;
+        var fix = SuggestedFix.builder();
+        for (var binding : bindings) { // the last binding first
+            var bound = types.idOf(binding.type.getTypeArguments().getFirst());
+            if (laterBound.contains(bound)) {
+                deadTypes = deadTypes.with(bound);
+                if (binding.getArguments().stream().allMatch(CoeffectDeadBinding::hasNoSideEffects)) {
+                    // from the end of the receiver of the with to the end of the with, e.g. `.with("Holo")`
+                    var receiver = ((JCTree.JCFieldAccess)binding.getMethodSelect()).selected;
+                    fix.replace(visitorState.getEndPosition(receiver), visitorState.getEndPosition(binding), "");
+                }
+            } else if (!scanner.unknown && !scanner.reads.contains(bound)) {
+                deadTypes = deadTypes.with(bound);
+            }
+            laterBound = laterBound.with(bound);
+        }
+        if (deadTypes.isEmpty()) {
+            return Description.NO_MATCH;
+        }
+
+        var message = "The types " + types.namesOf(deadTypes) + " are bound but never read inside the extent of `" + TreeInfo.name((JCTree)methodInv.getMethodSelect()) + "`. "
+                      + "Remove the unused bindings, every execution binds them for nothing.";
+        var description = buildDescription(methodInv).setMessage(message);
+        if (!fix.isEmpty()) {
+            description.addFix(fix.build());
+        }
+        return description.build();
+    }
+
+    /**
+     * @return true iff evaluating the expression cannot have side effects, so removing it does not change the behavior of the program
+     */
+    private static boolean hasNoSideEffects(ExpressionTree expression) {
+        return switch (expression) {
+            case JCTree.JCLiteral ignore -> true;
+            case JCTree.JCIdent ignore -> true;
+            case JCTree.JCFieldAccess access -> hasNoSideEffects(access.selected); // fields and class literals
+            case JCTree.JCParens parens -> hasNoSideEffects(parens.expr);
+            default -> false;
+        };
+    }
+
+    private static boolean isClause(MethodInvocationTree methodInv, ContextTypes types) {
+        return methodInv.getMethodSelect() instanceof JCTree.JCFieldAccess access
+               && (access.name.contentEquals("call") || access.name.contentEquals("run"))
+               && access.selected.type != null
+               && types.isCarrier(access.selected.type.tsym);
+    }
+
+    /**
+     * @return The {@code with} invocations of the chain, the last binding first. A chain that does not start with {@code Coeffect#with} starts with an arbitrary carrier expression whose bindings are not inspected
+     */
+    private static List<JCTree.JCMethodInvocation> bindingsOf(JCTree.JCFieldAccess clause, ContextTypes types) {
+        var bindings = new ArrayList<JCTree.JCMethodInvocation>();
+        var current = clause.selected;
+        while (current instanceof JCTree.JCMethodInvocation invocation
+                && invocation.meth instanceof JCTree.JCFieldAccess access
+                && access.name.contentEquals("with")
+                && invocation.type != null
+                && types.isCarrier(invocation.type.tsym)) {
+            bindings.add(invocation);
+            if (types.isCoeffect(access.selected.type.tsym)) {
+                break;
+            }
+            current = access.selected;
+        }
+        return bindings;
+    }
+
+    /**
+     * A method is known to be context free if it belongs to the JDK, cannot be overridden (it is static or final, or its class is final), and all of its parameters are primitives or final classes of {@code java.lang} (e.g. {@code String}).
+     * Other methods may run user code, either directly, through an override, or through a callback or {@code Object#toString} of an argument.
+     * The scanner treats the implicit calls of the language the same way: string concatenation, enhanced for loops over an {@link Iterable}, try-with-resources and record patterns.
+     */
+    static boolean isContextFree(Symbol symbol, Types javacTypes) {
+        if (!(symbol instanceof Symbol.MethodSymbol method) || !isJdk(method.enclClass())) {
+            return false;
+        }
+        if (!method.isStatic() && !method.isConstructor() && (method.flags() & Flags.FINAL) == 0 && (method.enclClass().flags() & Flags.FINAL) == 0) {
+            return false;
+        }
+        for (var parameter : javacTypes.erasure(method.type).getParameterTypes()) {
+            if (!isValueType(parameter, javacTypes)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isJdk(Symbol.ClassSymbol clazz) {
+        return clazz != null && clazz.packge().getQualifiedName().toString().startsWith("java.");
+    }
+
+    private static boolean isValueType(Type type, Types javacTypes) {
+        if (type == null) {
+            return false;
+        }
+        while (javacTypes.isArray(type)) {
+            type = javacTypes.elemtype(type);
+        }
+        return type.isPrimitive()
+               || type.tsym instanceof Symbol.ClassSymbol clazz
+                  && (clazz.flags() & Flags.FINAL) != 0
+                  && clazz.packge().getQualifiedName().contentEquals("java.lang");
+    }
+
+    /**
+     * Collects the types read by a tree, the parameter is the set of types bound by the nested clauses around the current tree, reads of those types do not read the outer bindings
+     */
+    private static final class ReadScanner
+            extends TreeScanner<Void, ContextSet> {
+        // the number of method bodies a single extent may scan before the reads are considered unknown
+        private static final int MAX_METHODS = 64;
+
+        private final ContextTypes types;
+        private final ContextResolver resolver;
+        private final Types javacTypes;
+        private final JavacTrees trees;
+        private final Set<Visit> visited = new HashSet<>();
+        private ContextSet reads = ContextSet.EMPTY;
+        private boolean unknown = false;
+
+        private ReadScanner(VisitorState visitorState) {
+            this.types = ContextTypes.instance(visitorState.context);
+            this.resolver = ContextResolver.instance(visitorState.context);
+            this.javacTypes = visitorState.getTypes();
+            this.trees = JavacTrees.instance(visitorState.context);
+        }
+
+        @Override
+        public Void scan(Tree tree, ContextSet shadowed) {
+            return unknown ? null : super.scan(tree, shadowed);
+        }
+
+        @Override
+        public Void visitMethodInvocation(MethodInvocationTree methodInv, ContextSet shadowed) {
+            if (isClause(methodInv, types)) {
+                // the receiver is evaluated before the nested extent starts
+                var select = (JCTree.JCFieldAccess)methodInv.getMethodSelect();
+                scan(select, shadowed);
+                var rebound = shadowed;
+                for (var bound : CoeffectPath.extractCarrierContext(select.selected.type, types)) {
+                    rebound = rebound.with(types.idOf(bound));
+                }
+                scan(methodInv.getArguments(), rebound);
+                return null;
+            }
+
+            var symbol = TreeInfo.symbol((JCTree)methodInv.getMethodSelect());
+            if (symbol instanceof Symbol.MethodSymbol method && (types.isCoeffect(method.owner) || types.isCarrier(method.owner))) {
+                if (types.isCoeffectGet(method) || method.name.toString().startsWith("getOr")) {
+                    var type = CoeffectPath.extractClassLiteral(methodInv.getArguments().getFirst(), types);
+                    if (type == null) {
+                        unknown = true;
+                    } else if (!shadowed.contains(types.idOf(type))) {
+                        reads = reads.with(types.idOf(type));
+                    }
+                } else if (!method.name.contentEquals("with")) {
+                    unknown = true; // e.g. Coeffect#capture() reads every bound type
+                }
+            } else {
+                call(symbol, shadowed);
+            }
+            return super.visitMethodInvocation(methodInv, shadowed);
+        }
+
+        /**
+         * Adds the reads of a call:
+         * <ul>
+         *     <li>Methods that are known to be context free (see {@link #isContextFree}) read nothing</li>
+         *     <li>Methods of the compilation that cannot be overridden read what their body reads, including the {@code Coeffect#getOr*} and {@code Coeffect#capture()} calls that are not declared</li>
+         *     <li>Other methods with {@code @WithContext} or {@code @DelegateContext} read their declared context, the context of every override is a subset of it</li>
+         *     <li>Any other method may read anything</li>
+         * </ul>
+         */
+        private void call(Symbol symbol, ContextSet shadowed) {
+            if (isContextFree(symbol, javacTypes)) {
+                return;
+            }
+            if (symbol instanceof Symbol.MethodSymbol method) {
+                var body = bodyOf(method);
+                if (body != null) {
+                    if (visited.add(new Visit(method, shadowed))) {
+                        if (visited.size() > MAX_METHODS) {
+                            unknown = true;
+                            return;
+                        }
+                        scan(body, shadowed);
+                    }
+                    return;
+                }
+                var declared = resolver.contextOf(method);
+                if (!declared.isEmpty() || resolver.delegationOf(method) != null) { // delegated lambdas are scanned as arguments
+                    reads = reads.union(declared.difference(shadowed));
+                    return;
+                }
+            }
+            unknown = true;
+        }
+
+        /**
+         * @return The body of the method if it is declared in an attributed unit of the compilation and every call to it runs that body, null otherwise
+         */
+        private JCTree.JCBlock bodyOf(Symbol.MethodSymbol method) {
+            if (method.isConstructor() // the initializers of the class run as well
+                    || !RequiredContexts.cannotBeOverridden(method)
+                    || (method.enclClass().flags() & Flags.UNATTRIBUTED) != 0) {
+                return null;
+            }
+            return trees.getTree(method) instanceof JCTree.JCMethodDecl methodDecl ? methodDecl.getBody() : null;
+        }
+
+        @Override
+        public Void visitNewClass(NewClassTree newClassTree, ContextSet shadowed) {
+            if (newClassTree.getClassBody() != null) {
+                unknown = true; // the body may override methods that run inside the extent
+            } else {
+                call(((JCTree.JCNewClass)newClassTree).constructor, shadowed);
+            }
+            return super.visitNewClass(newClassTree, shadowed);
+        }
+
+        @Override
+        public Void visitMemberReference(MemberReferenceTree referenceTree, ContextSet shadowed) {
+            call(((JCTree.JCMemberReference)referenceTree).sym, shadowed);
+            return super.visitMemberReference(referenceTree, shadowed);
+        }
+
+        @Override
+        public Void visitBinary(BinaryTree binaryTree, ContextSet shadowed) {
+            // string concatenation invokes toString of the operands
+            unknown |= binaryTree.getKind() == Tree.Kind.PLUS
+                       && !(isValueType(((JCTree)binaryTree.getLeftOperand()).type, javacTypes) && isValueType(((JCTree)binaryTree.getRightOperand()).type, javacTypes));
+            return super.visitBinary(binaryTree, shadowed);
+        }
+
+        @Override
+        public Void visitCompoundAssignment(CompoundAssignmentTree assignmentTree, ContextSet shadowed) {
+            unknown |= assignmentTree.getKind() == Tree.Kind.PLUS_ASSIGNMENT && !isValueType(((JCTree)assignmentTree.getExpression()).type, javacTypes);
+            return super.visitCompoundAssignment(assignmentTree, shadowed);
+        }
+
+        @Override
+        public Void visitEnhancedForLoop(EnhancedForLoopTree loop, ContextSet shadowed) {
+            unknown |= !javacTypes.isArray(((JCTree)loop.getExpression()).type); // Iterable#iterator
+            return super.visitEnhancedForLoop(loop, shadowed);
+        }
+
+        @Override
+        public Void visitTry(TryTree tryTree, ContextSet shadowed) {
+            unknown |= !tryTree.getResources().isEmpty(); // AutoCloseable#close
+            return super.visitTry(tryTree, shadowed);
+        }
+
+        @Override
+        public Void visitDeconstructionPattern(DeconstructionPatternTree patternTree, ContextSet shadowed) {
+            unknown = true; // record accessors
+            return super.visitDeconstructionPattern(patternTree, shadowed);
+        }
+
+        @Override
+        public Void visitClass(ClassTree classTree, ContextSet shadowed) {
+            unknown = true; // a local class may be instantiated and run inside the extent
+            return null;
+        }
+
+        /**
+         * A method body is scanned once for every set of types that are bound again around its calls
+         */
+        private record Visit(Symbol.MethodSymbol method, ContextSet shadowed) {}
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.google.auto.service.AutoService;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.Trees;
+import com.sun.tools.javac.api.BasicJavacTask;
+
+import javax.tools.Diagnostic;
+
+/**
+ * Runs the checks of {@link CoeffectPlugin} as a plain javac plugin, without Error Prone:
+ * <pre>
+ *     javac -Xplugin:Coeffect ...
+ * </pre>
+ * Every top-level class is checked by {@link ContextChecker} right after it is analyzed, and violations are reported as errors with the same messages {@link CoeffectPlugin} reports.
+ * The plugin only depends on the compiler itself, so it does not load the scanning infrastructure and the default checks of Error Prone.
+ */
+@AutoService(Plugin.class)
+public class CoeffectJavacPlugin
+        implements Plugin {
+    public static final String NAME = "Coeffect";
+    private static final String LINK = "https://github.com/Holo314/coeffect";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(JavacTask task, String... args) {
+        var context = ((BasicJavacTask)task).getContext();
+        var trees = Trees.instance(task);
+        task.addTaskListener(new TaskListener() {
+            @Override
+            public void finished(TaskEvent event) {
+                if (event.getKind() != TaskEvent.Kind.ANALYZE || event.getTypeElement() == null) {
+                    return;
+                }
+                var path = trees.getPath(event.getTypeElement());
+                if (path == null || !CoeffectUsage.mayUseCoeffect(path.getLeaf(), context)) {
+                    return;
+                }
+                var compilationUnit = event.getCompilationUnit();
+                var checker = new ContextChecker(context, NAME,
+                                                 (node, msg) -> trees.printMessage(Diagnostic.Kind.ERROR, format(msg), node, compilationUnit));
+                checker.scan(path, null);
+            }
+        });
+    }
+
+    /**
+     * @return The message in the format Error Prone uses for {@link CoeffectPlugin}
+     */
+    private static String format(String msg) {
+        return "[" + NAME + "] " + msg + "\n    (see " + LINK + ")";
+    }
+}
@@ -0,0 +1,583 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.google.auto.service.AutoService;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.fixes.SuggestedFix;
+import com.google.errorprone.matchers.Description;
+import com.sun.source.tree.AssertTree;
+import com.sun.source.tree.BinaryTree;
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.BreakTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ConditionalExpressionTree;
+import com.sun.source.tree.ContinueTree;
+import com.sun.source.tree.DoWhileLoopTree;
+import com.sun.source.tree.EnhancedForLoopTree;
+import com.sun.source.tree.ForLoopTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.IfTree;
+import com.sun.source.tree.LabeledStatementTree;
+import com.sun.source.tree.LambdaExpressionTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ReturnTree;
+import com.sun.source.tree.StatementTree;
+import com.sun.source.tree.SwitchExpressionTree;
+import com.sun.source.tree.SwitchTree;
+import com.sun.source.tree.ThrowTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.TryTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.tree.WhileLoopTree;
+import com.sun.source.tree.YieldTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import io.github.holo314.coeffect.compiletime.annotations.ContextAccessor;
+
+import javax.inject.Inject;
+import javax.lang.model.SourceVersion;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@AutoService(BugChecker.class)
+@BugPattern(
+        name = "CoeffectLoopInvariant",
+        summary = """
+                  Coeffect.get(...) and @ContextAccessor methods are read on every iteration of a loop that does not bind any context, where their value cannot change. Read them once before the loop.
+                  """,
+        severity = BugPattern.SeverityLevel.WARNING,
+        linkType = BugPattern.LinkType.CUSTOM,
+        link = "https://github.com/Holo314/coeffect"
+)
+public class CoeffectLoopInvariant
+        extends BugChecker
+        implements BugChecker.CompilationUnitTreeMatcher {
+    private final boolean enabled;
+
+    @Inject
+    public CoeffectLoopInvariant(ErrorProneFlags flags) {
+        this.enabled = flags.getBoolean(CoeffectPlugin.EXTRA_CHECKS_FLAG).orElse(false);
+    }
+
+    /**
+     * Reports the reads of the outermost loops that do not bind any context, the reads of nested loops are hoisted out of the outermost one.
+     * Lambdas and classes inside a loop are not inspected as a part of it, they do not necessarily run in the loop, and their own loops are reported separately.
+     * Whether every loop of the unit binds context is computed bottom-up in a single pass, and all the state of the analysis is local to this call.
+     */
+    @Override
+    public Description matchCompilationUnit(CompilationUnitTree compilationUnit, VisitorState visitorState) {
+        if (!enabled || !CoeffectUsage.mayUseCoeffect(compilationUnit, visitorState.context)) {
+            return Description.NO_MATCH;
+        }
+        var types = ContextTypes.instance(visitorState.context);
+        var bindingLoops = new IdentityHashMap<Tree, Boolean>();
+        new BindingScanner(types, bindingLoops).scan(compilationUnit, null);
+        new LoopScanner(types, bindingLoops, visitorState).scan(new TreePath(compilationUnit), null);
+        return Description.NO_MATCH;
+    }
+
+    /**
+     * @return The parts of the loop that are evaluated on every iteration
+     */
+    private static List<Tree> repeatedParts(StatementTree loop) {
+        var repeated = new ArrayList<Tree>();
+        switch (loop) {
+            case ForLoopTree forLoop -> {
+                repeated.addAll(forLoop.getUpdate());
+                repeated.add(forLoop.getCondition());
+                repeated.add(forLoop.getStatement());
+            }
+            case EnhancedForLoopTree forLoop -> repeated.add(forLoop.getStatement());
+            case WhileLoopTree whileLoop -> {
+                repeated.add(whileLoop.getCondition());
+                repeated.add(whileLoop.getStatement());
+            }
+            case DoWhileLoopTree doWhileLoop -> {
+                repeated.add(doWhileLoop.getStatement());
+                repeated.add(doWhileLoop.getCondition());
+            }
+            default -> {}
+        }
+        return repeated;
+    }
+
+    private Description matchLoop(TreePath loopPath, ContextTypes types, VisitorState visitorState) {
+        var loop = (StatementTree)loopPath.getLeaf();
+        var reads = new LinkedHashMap<String, List<JCTree.JCMethodInvocation>>();
+        var scanner = new TreeScanner<Void, Void>() {
+            @Override
+            public Void visitLambdaExpression(LambdaExpressionTree lambdaTree, Void unused) {
+                return null;
+            }
+
+            @Override
+            public Void visitClass(ClassTree classTree, Void unused) {
+                return null;
+            }
+
+            @Override
+            public Void visitMethodInvocation(MethodInvocationTree methodInv, Void unused) {
+                var key = invariantKey((JCTree.JCMethodInvocation)methodInv, types);
+                if (key != null) {
+                    reads.computeIfAbsent(key, ignore -> new ArrayList<>()).add((JCTree.JCMethodInvocation)methodInv);
+                    return null;
+                }
+                return super.visitMethodInvocation(methodInv, unused);
+            }
+        };
+        repeatedParts(loop).forEach(tree -> scanner.scan(tree, null));
+        if (reads.isEmpty()) {
+            return Description.NO_MATCH;
+        }
+
+        var message = "The loop reads " + reads.keySet() + " on every iteration, but the loop does not bind any context so the values cannot change. Read them once before the loop.";
+        var description = buildDescription(loop).setMessage(message);
+        var fix = hoistingFix(loopPath, reads, visitorState);
+        if (fix != null) {
+            description.addFix(fix);
+        }
+        return description.build();
+    }
+
+    /**
+     * @return A key that identifies the value of a loop invariant read, or null if the invocation is not a loop invariant read
+     */
+    private static String invariantKey(JCTree.JCMethodInvocation methodInv, ContextTypes types) {
+        var symbol = TreeInfo.symbol(methodInv.getMethodSelect());
+        if (types.isCoeffectGet(symbol)) {
+            var type = CoeffectPath.extractClassLiteral(methodInv.getArguments().getFirst(), types);
+            return type == null ? null : "Coeffect.get(" + type + ".class)";
+        }
+        if (symbol instanceof Symbol.MethodSymbol method
+                && methodInv.getArguments().isEmpty()
+                && isAccessor(method)
+                && (method.isStatic() || isThis(methodInv.getMethodSelect()))) {
+            return method.enclClass().getQualifiedName() + "#" + method.name + "()";
+        }
+        return null;
+    }
+
+    private static boolean isAccessor(Symbol.MethodSymbol method) {
+        for (var annotation : method.getAnnotationMirrors()) {
+            if (annotation.type.tsym.getQualifiedName().contentEquals(ContextAccessor.class.getCanonicalName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true iff the method is invoked on {@code this}, other receivers may change between iterations
+     */
+    private static boolean isThis(JCTree.JCExpression methodSelect) {
+        return methodSelect instanceof JCTree.JCIdent
+               || methodSelect instanceof JCTree.JCFieldAccess access && TreeInfo.name(access.selected) != null && TreeInfo.name(access.selected).contentEquals("this");
+    }
+
+    /**
+     * Records for every loop whether its subtree contains a {@code Carrier#run}/{@code Carrier#call} invocation, bottom-up in a single pass
+     */
+    private static final class BindingScanner
+            extends TreeScanner<Void, Void> {
+        private final ContextTypes types;
+        private final Map<Tree, Boolean> bindingLoops;
+        private boolean found = false; // whether the current subtree binds context
+
+        private BindingScanner(ContextTypes types, Map<Tree, Boolean> bindingLoops) {
+            this.types = types;
+            this.bindingLoops = bindingLoops;
+        }
+
+        @Override
+        public Void visitMethodInvocation(MethodInvocationTree methodInv, Void unused) {
+            found |= methodInv.getMethodSelect() instanceof JCTree.JCFieldAccess access
+                     && (access.name.contentEquals("call") || access.name.contentEquals("run"))
+                     && access.selected.type != null
+                     && types.isCarrier(access.selected.type.tsym);
+            return super.visitMethodInvocation(methodInv, unused);
+        }
+
+        @Override
+        public Void visitForLoop(ForLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitForLoop(loop, unused));
+        }
+
+        @Override
+        public Void visitEnhancedForLoop(EnhancedForLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitEnhancedForLoop(loop, unused));
+        }
+
+        @Override
+        public Void visitWhileLoop(WhileLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitWhileLoop(loop, unused));
+        }
+
+        @Override
+        public Void visitDoWhileLoop(DoWhileLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitDoWhileLoop(loop, unused));
+        }
+
+        private Void loop(Tree loop, Runnable scanChildren) {
+            var outer = found;
+            found = false;
+            scanChildren.run();
+            bindingLoops.put(loop, found);
+            found |= outer;
+            return null;
+        }
+    }
+
+    /**
+     * Matches the outermost loops of every method, lambda and class body that do not bind any context, skipping the declarations the check is suppressed on
+     */
+    private final class LoopScanner
+            extends TreePathScanner<Void, Void> {
+        private final ContextTypes types;
+        private final Map<Tree, Boolean> bindingLoops;
+        private final VisitorState visitorState;
+        private boolean inInvariantLoop = false; // whether an enclosing loop of the current body already reports the reads
+
+        private LoopScanner(ContextTypes types, Map<Tree, Boolean> bindingLoops, VisitorState visitorState) {
+            this.types = types;
+            this.bindingLoops = bindingLoops;
+            this.visitorState = visitorState;
+        }
+
+        @Override
+        public Void visitClass(ClassTree classTree, Void unused) {
+            if (ContextChecker.isSuppressed(((JCTree.JCClassDecl)classTree).sym, canonicalName())) {
+                return null;
+            }
+            return body(() -> super.visitClass(classTree, unused));
+        }
+
+        @Override
+        public Void visitMethod(MethodTree methodTree, Void unused) {
+            if (ContextChecker.isSuppressed(((JCTree.JCMethodDecl)methodTree).sym, canonicalName())) {
+                return null;
+            }
+            return body(() -> super.visitMethod(methodTree, unused));
+        }
+
+        @Override
+        public Void visitVariable(VariableTree variableTree, Void unused) {
+            if (ContextChecker.isSuppressed(((JCTree.JCVariableDecl)variableTree).sym, canonicalName())) {
+                return null;
+            }
+            return super.visitVariable(variableTree, unused);
+        }
+
+        @Override
+        public Void visitLambdaExpression(LambdaExpressionTree lambdaTree, Void unused) {
+            return body(() -> super.visitLambdaExpression(lambdaTree, unused));
+        }
+
+        @Override
+        public Void visitForLoop(ForLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitForLoop(loop, unused));
+        }
+
+        @Override
+        public Void visitEnhancedForLoop(EnhancedForLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitEnhancedForLoop(loop, unused));
+        }
+
+        @Override
+        public Void visitWhileLoop(WhileLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitWhileLoop(loop, unused));
+        }
+
+        @Override
+        public Void visitDoWhileLoop(DoWhileLoopTree loop, Void unused) {
+            return loop(loop, () -> super.visitDoWhileLoop(loop, unused));
+        }
+
+        private Void body(Runnable scanChildren) {
+            var outer = inInvariantLoop;
+            inInvariantLoop = false;
+            scanChildren.run();
+            inInvariantLoop = outer;
+            return null;
+        }
+
+        private Void loop(StatementTree loop, Runnable scanChildren) {
+            if (inInvariantLoop || bindingLoops.getOrDefault(loop, false)) {
+                scanChildren.run();
+                return null;
+            }
+            var description = matchLoop(getCurrentPath(), types, visitorState);
+            if (description != Description.NO_MATCH) {
+                visitorState.reportMatch(description);
+            }
+            inInvariantLoop = true;
+            scanChildren.run();
+            inInvariantLoop = false;
+            return null;
+        }
+    }
+
+    /**
+     * Only the reads that are surely evaluated in the first iteration of the loop are hoisted, so the fix never evaluates a read (e.g. an {@code @ContextAccessor} method) that the loop would not have evaluated.
+     * The other reads of a hoisted value are replaced as well, since the value cannot change.
+     *
+     * @return A fix that declares a local for every hoisted read before the loop and replaces the reads with it, or null if no read can be hoisted or the loop is not a statement of a block
+     */
+    private static SuggestedFix hoistingFix(TreePath loopPath, Map<String, List<JCTree.JCMethodInvocation>> reads, VisitorState visitorState) {
+        var statementPath = loopPath;
+        while (statementPath.getParentPath().getLeaf() instanceof LabeledStatementTree) {
+            statementPath = statementPath.getParentPath();
+        }
+        if (!(statementPath.getParentPath().getLeaf() instanceof BlockTree)) {
+            return null;
+        }
+        var evaluated = FirstIterationScanner.evaluatedBy((StatementTree)loopPath.getLeaf());
+        var hoisted = new LinkedHashMap<String, List<JCTree.JCMethodInvocation>>();
+        reads.forEach((key, invocations) -> {
+            if (invocations.stream().anyMatch(evaluated::contains)) {
+                hoisted.put(key, invocations);
+            }
+        });
+        if (hoisted.isEmpty()) {
+            return null;
+        }
+
+        var usedNames = namesIn(enclosingBody(statementPath));
+        var fix = SuggestedFix.builder();
+        var declarations = new StringBuilder();
+        for (var invocations : hoisted.values()) {
+            var first = invocations.getFirst();
+            var name = uniqueName(baseName(first), usedNames);
+            declarations.append("var ").append(name).append(" = ").append(visitorState.getSourceForNode(first)).append(";\n");
+            invocations.forEach(invocation -> fix.replace(invocation, name));
+        }
+        return fix.prefixWith(statementPath.getLeaf(), declarations.toString())
+                  .build();
+    }
+
+    /**
+     * Collects the invocations that are surely evaluated in the first iteration of a loop: the invocations of the condition of {@code for} and {@code while} loops and of the body of {@code do}/{@code while} loops, which run at least once, that are not under a branch.
+     * The branches of {@code if}, {@code switch}, {@code ?:}, {@code &&} and {@code ||}, the bodies of nested loops, {@code try} statements, {@code assert} statements, and everything that follows a jump ({@code break}, {@code continue}, {@code return}, {@code throw} or {@code yield}) may not be evaluated.
+     * Lambdas and classes are not evaluated at all.
+     */
+    private static final class FirstIterationScanner
+            extends TreeScanner<Void, Void> {
+        private final Set<Tree> evaluated = new HashSet<>();
+        private int branches = 0; // the number of enclosing trees that may not be evaluated
+        private boolean jumped = false;
+
+        private static Set<Tree> evaluatedBy(StatementTree loop) {
+            var scanner = new FirstIterationScanner();
+            switch (loop) {
+                case ForLoopTree forLoop -> scanner.scan(forLoop.getCondition(), null);
+                case WhileLoopTree whileLoop -> scanner.scan(whileLoop.getCondition(), null);
+                case DoWhileLoopTree doWhileLoop -> scanner.scan(doWhileLoop.getStatement(), null);
+                default -> {} // the body of an enhanced for loop may never run
+            }
+            return scanner.evaluated;
+        }
+
+        private Void branch(Runnable scanBranch) {
+            branches++;
+            scanBranch.run();
+            branches--;
+            return null;
+        }
+
+        @Override
+        public Void visitMethodInvocation(MethodInvocationTree methodInv, Void unused) {
+            super.visitMethodInvocation(methodInv, unused); // the receiver and the arguments are evaluated first
+            if (branches == 0 && !jumped) {
+                evaluated.add(methodInv);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLambdaExpression(LambdaExpressionTree lambdaTree, Void unused) {
+            return null;
+        }
+
+        @Override
+        public Void visitClass(ClassTree classTree, Void unused) {
+            return null;
+        }
+
+        @Override
+        public Void visitIf(IfTree ifTree, Void unused) {
+            scan(ifTree.getCondition(), null);
+            return branch(() -> {
+                scan(ifTree.getThenStatement(), null);
+                scan(ifTree.getElseStatement(), null);
+            });
+        }
+
+        @Override
+        public Void visitConditionalExpression(ConditionalExpressionTree conditionalTree, Void unused) {
+            scan(conditionalTree.getCondition(), null);
+            return branch(() -> {
+                scan(conditionalTree.getTrueExpression(), null);
+                scan(conditionalTree.getFalseExpression(), null);
+            });
+        }
+
+        @Override
+        public Void visitBinary(BinaryTree binaryTree, Void unused) {
+            if (binaryTree.getKind() == Tree.Kind.CONDITIONAL_AND || binaryTree.getKind() == Tree.Kind.CONDITIONAL_OR) {
+                scan(binaryTree.getLeftOperand(), null);
+                return branch(() -> scan(binaryTree.getRightOperand(), null));
+            }
+            return super.visitBinary(binaryTree, unused);
+        }
+
+        @Override
+        public Void visitSwitch(SwitchTree switchTree, Void unused) {
+            scan(switchTree.getExpression(), null);
+            return branch(() -> scan(switchTree.getCases(), null));
+        }
+
+        @Override
+        public Void visitSwitchExpression(SwitchExpressionTree switchTree, Void unused) {
+            scan(switchTree.getExpression(), null);
+            return branch(() -> scan(switchTree.getCases(), null));
+        }
+
+        @Override
+        public Void visitTry(TryTree tryTree, Void unused) {
+            return branch(() -> super.visitTry(tryTree, unused));
+        }
+
+        @Override
+        public Void visitAssert(AssertTree assertTree, Void unused) {
+            return branch(() -> super.visitAssert(assertTree, unused));
+        }
+
+        @Override
+        public Void visitForLoop(ForLoopTree loop, Void unused) {
+            scan(loop.getInitializer(), null);
+            scan(loop.getCondition(), null);
+            return branch(() -> {
+                scan(loop.getStatement(), null);
+                scan(loop.getUpdate(), null);
+            });
+        }
+
+        @Override
+        public Void visitEnhancedForLoop(EnhancedForLoopTree loop, Void unused) {
+            scan(loop.getExpression(), null);
+            return branch(() -> scan(loop.getStatement(), null));
+        }
+
+        @Override
+        public Void visitWhileLoop(WhileLoopTree loop, Void unused) {
+            scan(loop.getCondition(), null);
+            return branch(() -> scan(loop.getStatement(), null));
+        }
+
+        @Override
+        public Void visitDoWhileLoop(DoWhileLoopTree loop, Void unused) {
+            return branch(() -> super.visitDoWhileLoop(loop, unused));
+        }
+
+        @Override
+        public Void visitBreak(BreakTree breakTree, Void unused) {
+            jumped = true;
+            return null;
+        }
+
+        @Override
+        public Void visitContinue(ContinueTree continueTree, Void unused) {
+            jumped = true;
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(ReturnTree returnTree, Void unused) {
+            super.visitReturn(returnTree, unused);
+            jumped = true;
+            return null;
+        }
+
+        @Override
+        public Void visitThrow(ThrowTree throwTree, Void unused) {
+            super.visitThrow(throwTree, unused);
+            jumped = true;
+            return null;
+        }
+
+        @Override
+        public Void visitYield(YieldTree yieldTree, Void unused) {
+            super.visitYield(yieldTree, unused);
+            jumped = true;
+            return null;
+        }
+    }
+
+    private static Tree enclosingBody(TreePath path) {
+        for (var current = path; current != null; current = current.getParentPath()) {
+            if (current.getLeaf() instanceof MethodTree
+                    || current.getLeaf() instanceof LambdaExpressionTree
+                    || current.getLeaf() instanceof ClassTree) {
+                return current.getLeaf();
+            }
+        }
+        return path.getCompilationUnit();
+    }
+
+    private static Set<String> namesIn(Tree tree) {
+        var names = new HashSet<String>();
+        new TreeScanner<Void, Void>() {
+            @Override
+            public Void visitVariable(VariableTree variableTree, Void unused) {
+                names.add(variableTree.getName().toString());
+                return super.visitVariable(variableTree, unused);
+            }
+
+            @Override
+            public Void visitIdentifier(IdentifierTree identifierTree, Void unused) {
+                names.add(identifierTree.getName().toString());
+                return super.visitIdentifier(identifierTree, unused);
+            }
+        }.scan(tree, null);
+        return names;
+    }
+
+    /**
+     * @return The simple name of the type for {@code Coeffect.get(...)}, and the name of the accessor without a {@code get} prefix for accessors, in lower camel case
+     */
+    private static String baseName(JCTree.JCMethodInvocation invocation) {
+        String name;
+        if (invocation.getArguments().isEmpty()) {
+            name = TreeInfo.name(invocation.getMethodSelect()).toString();
+            if (name.length() > 3 && name.startsWith("get") && Character.isUpperCase(name.charAt(3))) {
+                name = name.substring(3);
+            }
+        } else {
+            var type = ((JCTree.JCFieldAccess)invocation.getArguments().getFirst()).selected.type;
+            name = type.tsym.getSimpleName().toString();
+        }
+        name = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+        return SourceVersion.isKeyword(name) ? name + "Value" : name;
+    }
+
+    private static String uniqueName(String base, Set<String> usedNames) {
+        var name = base;
+        for (var i = 2; usedNames.contains(name); i++) {
+            name = base + i;
+        }
+        usedNames.add(name);
+        return name;
+    }
+}
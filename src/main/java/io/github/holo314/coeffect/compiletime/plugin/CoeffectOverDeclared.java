@@ -0,0 +1,197 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.google.auto.service.AutoService;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.fixes.SuggestedFix;
+import com.google.errorprone.matchers.Description;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.util.Context;
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@AutoService(BugChecker.class)
+@BugPattern(
+        name = "CoeffectOverDeclared",
+        summary = """
+                  The @WithContext annotation declares types that neither the method nor anything it calls require, every caller has to bind them for nothing.
+                  Only methods that cannot be overridden are reported, since the context of an overridable method bounds the context of its overrides, which may be compiled by other modules.
+                  """,
+        severity = BugPattern.SeverityLevel.WARNING,
+        linkType = BugPattern.LinkType.CUSTOM,
+        link = "https://github.com/Holo314/coeffect"
+)
+public class CoeffectOverDeclared
+        extends BugChecker
+        implements BugChecker.CompilationUnitTreeMatcher {
+    private final boolean enabled;
+
+    @Inject
+    public CoeffectOverDeclared(ErrorProneFlags flags) {
+        this.enabled = flags.getBoolean(CoeffectPlugin.EXTRA_CHECKS_FLAG).orElse(false);
+    }
+
+    /**
+     * Computes the context every method of the unit actually requires (see {@link RequiredContexts}), and reports the methods that declare more.<br>
+     * The requirements of calls to methods of the compilation that cannot be overridden are their actual requirements, computed as a fixpoint over the calls of the whole compilation, so a type that is over-declared along a chain of such calls is reported on every method of the chain at once.
+     * Overridable methods are neither reported nor narrowed through: their declared context bounds the context of overrides that may be compiled later, by other modules, so it is not over-declared even if no override in the compilation requires it.
+     */
+    @Override
+    public Description matchCompilationUnit(CompilationUnitTree compilationUnit, VisitorState visitorState) {
+        if (!enabled || !CoeffectUsage.mayUseCoeffect(compilationUnit, visitorState.context)) {
+            return Description.NO_MATCH;
+        }
+        var scanner = new RequiredContextScanner(visitorState.context, canonicalName(), RequiredContexts.instance(visitorState.context));
+        scanner.scan(new TreePath(compilationUnit), null);
+
+        var types = ContextTypes.instance(visitorState.context);
+        var resolver = ContextResolver.instance(visitorState.context);
+        for (var method : scanner.methods) {
+            var required = scanner.requiredBy(method);
+            if (required == null) {
+                continue;
+            }
+            var declared = resolver.contextOf(method.sym);
+            var redundant = declared.difference(required);
+            if (!redundant.isEmpty()) {
+                visitorState.reportMatch(describe(method, declared, required, redundant, types, visitorState));
+            }
+        }
+        return Description.NO_MATCH;
+    }
+
+    private Description describe(
+            JCTree.JCMethodDecl method, ContextSet declared, ContextSet required, ContextSet redundant, ContextTypes types, VisitorState visitorState
+    ) {
+        var message = "Method declares " + types.namesOf(declared) + " but only requires " + types.namesOf(required)
+                      + ". Remove " + types.namesOf(redundant) + " from the @WithContext annotation, so callers do not have to bind them.";
+        var description = buildDescription(method).setMessage(message);
+        var fix = narrowingFix(method, required, types, visitorState);
+        if (fix != null) {
+            description.addFix(fix);
+        }
+        return description.build();
+    }
+
+    /**
+     * @return A fix that rewrites the {@link WithContext} annotation of the method with the required types only, keeping their original source, or deletes the annotation if nothing is required
+     */
+    private static SuggestedFix narrowingFix(JCTree.JCMethodDecl method, ContextSet required, ContextTypes types, VisitorState visitorState) {
+        var annotation = findWithContext(method);
+        if (annotation == null) {
+            return null;
+        }
+        if (required.isEmpty()) {
+            return SuggestedFix.delete(annotation);
+        }
+
+        var retained = new ArrayList<String>();
+        for (var argument : annotation.getArguments()) {
+            var value = argument instanceof JCTree.JCAssign assign ? assign.getExpression() : argument;
+            var elements = value instanceof JCTree.JCNewArray array ? array.getInitializers() : List.of(value);
+            for (var element : elements) {
+                if (!(element instanceof JCTree.JCFieldAccess literal) || literal.selected.type == null) {
+                    return null; // not a class literal, keep the annotation as is
+                }
+                if (required.contains(types.idOf(literal.selected.type))) {
+                    retained.add(visitorState.getSourceForNode(element));
+                }
+            }
+        }
+        var name = visitorState.getSourceForNode(annotation.getAnnotationType());
+        var replacement = retained.size() == 1 ? "@" + name + "(" + retained.getFirst() + ")"
+                                               : "@" + name + "({" + String.join(", ", retained) + "})";
+        return SuggestedFix.replace(annotation, replacement);
+    }
+
+    private static JCTree.JCAnnotation findWithContext(JCTree.JCMethodDecl method) {
+        for (var annotation : method.getModifiers().getAnnotations()) {
+            if (annotation.annotationType.type != null
+                    && annotation.annotationType.type.tsym.getQualifiedName().contentEquals(WithContext.class.getCanonicalName())) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects the required context of every scope owner, and the methods whose context can be narrowed without breaking the covariance of their overrides
+     */
+    private static final class RequiredContextScanner
+            extends ContextScanner {
+        private final String checkName;
+        private final RequiredContexts requiredContexts;
+        private final List<JCTree.JCMethodDecl> methods = new ArrayList<>();
+        private final Map<Tree, ContextSet> required = new HashMap<>();
+        private final Set<Tree> unknown = new HashSet<>();
+        private final Map<JCTree.JCMethodDecl, JCTree.JCClassDecl> firstConstructors = new HashMap<>();
+
+        private RequiredContextScanner(Context context, String checkName, RequiredContexts requiredContexts) {
+            super(context);
+            this.checkName = checkName;
+            this.requiredContexts = requiredContexts;
+        }
+
+        /**
+         * @return The context the method requires, including the initializers of the class for the first constructor (see {@link ContextScanner}), or null if it cannot be computed
+         */
+        private ContextSet requiredBy(JCTree.JCMethodDecl method) {
+            var classDecl = firstConstructors.get(method);
+            if (unknown.contains(method) || (classDecl != null && unknown.contains(classDecl))) {
+                return null;
+            }
+            var result = required.getOrDefault(method, ContextSet.EMPTY);
+            return classDecl == null ? result : result.union(required.getOrDefault(classDecl, ContextSet.EMPTY));
+        }
+
+        @Override
+        protected void visitPath(CoeffectPath path) {
+            required.merge(scopeOwner(), requiredContexts.requirementsOf(path).difference(path.explicitlyBounded()), ContextSet::union);
+        }
+
+        @Override
+        protected void visitLiteralViolation(ExpressionTree tree, String message) {
+            unknown.add(scopeOwner()); // the requirement cannot be computed
+        }
+
+        @Override
+        public Void visitClass(ClassTree classTree, Void unused) {
+            var classDecl = (JCTree.JCClassDecl)classTree;
+            if (ContextChecker.isSuppressed(classDecl.sym, checkName)) {
+                return null;
+            }
+            var constructor = TreeUtils.getConstructorFromClassDecl(classDecl);
+            if (constructor != null) {
+                firstConstructors.put(constructor, classDecl);
+            }
+            return super.visitClass(classTree, unused);
+        }
+
+        @Override
+        public Void visitMethod(MethodTree methodTree, Void unused) {
+            var methodDecl = (JCTree.JCMethodDecl)methodTree;
+            if (ContextChecker.isSuppressed(methodDecl.sym, checkName)) {
+                return null;
+            }
+            if (methodDecl.getBody() != null && !resolver.contextOf(methodDecl.sym).isEmpty() && RequiredContexts.cannotBeOverridden(methodDecl.sym)) {
+                methods.add(methodDecl);
+            }
+            return super.visitMethod(methodTree, unused);
+        }
+    }
+}
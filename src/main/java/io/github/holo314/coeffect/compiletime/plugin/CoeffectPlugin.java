@@ -1,20 +1,17 @@
 package io.github.holo314.coeffect.compiletime.plugin;
 
 import com.google.auto.service.AutoService;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Sets;
 import com.google.errorprone.BugPattern;
+import com.google.errorprone.ErrorProneFlags;
 import com.google.errorprone.VisitorState;
 import com.google.errorprone.bugpatterns.BugChecker;
 import com.google.errorprone.matchers.Description;
-import com.sun.source.tree.*;
-import com.sun.tools.javac.code.Types;
-import com.sun.tools.javac.tree.JCTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
 
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Set;
+import javax.inject.Inject;
+import java.nio.file.Path;
 
 @AutoService(BugChecker.class)
 @BugPattern(
@@ -29,125 +26,51 @@ import java.util.Set;
 )
 public class CoeffectPlugin
         extends BugChecker
-        implements BugChecker.MethodInvocationTreeMatcher, BugChecker.MemberReferenceTreeMatcher, BugChecker.MethodTreeMatcher {
-
-    @Override
-    public Description matchMethodInvocation(MethodInvocationTree methodInv, VisitorState visitorState) {
-        var path = CoeffectPath.of(methodInv, visitorState);
-        return checkTree(path);
+        implements BugChecker.CompilationUnitTreeMatcher {
+    /**
+     * The directory of the {@link CheckCache}, e.g. {@code -XepOpt:Coeffect:CacheDir=target/coeffect-cache}. There is no cache when the flag is absent
+     */
+    public static final String CACHE_DIR_FLAG = "Coeffect:CacheDir";
+    /**
+     * Enables the checks that are not required for correctness ({@link CoeffectOverDeclared}, {@link CoeffectDeadBinding} and {@link CoeffectLoopInvariant}), e.g. {@code -XepOpt:Coeffect:ExtraChecks=true}. They do nothing when the flag is absent
+     */
+    public static final String EXTRA_CHECKS_FLAG = "Coeffect:ExtraChecks";
+
+    private final Path cacheDirectory;
+
+    @Inject
+    public CoeffectPlugin(ErrorProneFlags flags) {
+        this.cacheDirectory = flags.get(CACHE_DIR_FLAG).map(Path::of).orElse(null);
     }
 
+    /**
+     * Runs all the checks of {@link ContextChecker} in a single pass over the compilation unit, units that cannot involve Coeffect (see {@link CoeffectUsage}) are skipped entirely, and so are units that are clean according to the {@link CheckCache}
+     */
     @Override
-    public Description matchMemberReference(MemberReferenceTree memberReferenceTree, VisitorState visitorState) {
-        var path = CoeffectPath.of(memberReferenceTree, visitorState);
-        return checkTree(path);
-    }
-
-    private Description checkTree(CoeffectPath path) {
-        try {
-            var requirements = path.getMissingRequirements();
-            if (!requirements.isEmpty()) {
-                return describeContextViolation(path, requirements);
-            }
-        } catch (IllegalStateException e) {
-            return describeLiteralViolation(path, e.getMessage());
+    public Description matchCompilationUnit(CompilationUnitTree compilationUnit, VisitorState visitorState) {
+        if (!CoeffectUsage.mayUseCoeffect(compilationUnit, visitorState.context)) {
+            return Description.NO_MATCH;
+        }
+        var cache = cacheDirectory == null ? null : CheckCache.instance(visitorState.context, cacheDirectory);
+        if (cache != null && cache.isClean(compilationUnit)) {
+            return Description.NO_MATCH;
         }
 
+        var clean = new boolean[]{true};
+        var checker = new ContextChecker(visitorState.context, this.canonicalName(),
+                                         (node, msg) -> {
+                                             clean[0] = false;
+                                             visitorState.reportMatch(describe(node, msg));
+                                         });
+        checker.scan(new TreePath(compilationUnit), null);
+        if (cache != null && clean[0]) {
+            cache.storeClean(compilationUnit);
+        }
         return Description.NO_MATCH;
     }
 
-    @Override
-    public Description matchMethod(MethodTree methodTree, VisitorState visitorState) {
-        var jcMethod = (JCTree.JCMethodDecl)methodTree;
-        var methodSymbol = jcMethod.sym;
-
-        var specifiedRequirements = CoeffectPath.getContextOfSymbol(methodSymbol);
-
-        var superMethods = InheritanceUtils.getSuperMethods(methodSymbol, Types.instance(visitorState.context));
-        var requiredBySupers = superMethods.map(InheritanceUtils.Candidate::getContext);
-
-        var covariant =
-                requiredBySupers.filter(requirement -> !requirement.context().containsAll(specifiedRequirements))
-                                .toList();
-
-        return covariant.isEmpty() ? Description.NO_MATCH
-                                   : describeInheritanceViolation(methodTree, covariant, specifiedRequirements);
-    }
-
-    public Description describeLiteralViolation(CoeffectPath node, String msg) {
-        return Description.builder(node.expressionTree(), this.canonicalName(), this.linkUrl(), msg)
-                          .build();
-    }
-
-    public Description describeContextViolation(CoeffectPath node, Collection<String> missings) {
-        var args = ((JCTree.JCMethodInvocation) node.expressionTree())
-                .getArguments()
-                .map(JCTree::toString)
-                .toString(", ");
-
-        var callExpressionTree = (((JCTree.JCMethodInvocation) node.expressionTree()).getMethodSelect());
-        var callExpression = switch (callExpressionTree) {
-            case JCTree.JCFieldAccess tree -> tree.name.toString();
-            case JCTree.JCIdent tree -> tree.getName().toString();
-            default -> callExpressionTree.toString();
-        };
-
-        //noinspection StringBufferReplaceableByString
-        var msg = new StringBuilder()
-                .append("Missing requirements in `")
-                .append(callExpression)
-                .append("(")
-                .append(args)
-                .append(")`. Required types for the call: ")
-                .append(Iterables.toString(node.requirements().stream().sorted().toList())) // all sets are sorted for consistent tests
-                .append(", bounded types: ")
-                .append(Iterables.toString(node.explicitlyBounded().stream().sorted().toList()))
-                .append(", context types: ")
-                .append(Iterables.toString(node.enclosingBounds().stream().sorted().toList()))
-                .append(", missing types: ")
-                .append(Iterables.toString(missings.stream().sorted().toList()))
-                .append(". Either bind the missing types with Coeffect#with method before call the method or add the missing types to the context of the current method via @WithContext annotation.")
-                .toString();
-
-        return Description.builder(node.expressionTree(), this.canonicalName(), this.linkUrl(), msg)
-                          .build();
-    }
-
-    public Description describeInheritanceViolation(
-            Tree node, List<InheritanceUtils.Contextual> covariantViolation, Set<String> specifiedRequirements
-    ) {
-        var msgBuilder = new StringBuilder()
-                .append("Method requires ")
-                .append(Iterables.toString(specifiedRequirements.stream()
-                                                                .sorted()
-                                                                .toList())) // transform to sorted list for tests
-                .append(" but implements:");
-
-        covariantViolation.stream().sorted(Comparator.comparing(Record::toString))
-                          .forEach(violation ->
-                                           msgBuilder.append(System.lineSeparator())
-                                                     .append("\t")
-                                                     .append(violation.candidate().clazz())
-                                                     .append("#")
-                                                     .append(violation.candidate().method())
-                                                     .append(" which requires ")
-                                                     .append(Iterables.toString(violation.context()
-                                                                                         .stream()
-                                                                                         .sorted()
-                                                                                         .toList())) // transform to sorted list for tests
-                                                     .append(".")
-                                                     .append(" Remove ")
-                                                     .append(Iterables.toString(Sets.difference(specifiedRequirements, violation.context())
-                                                                                    .stream()
-                                                                                    .sorted()
-                                                                                    .toList())) // transform to sorted list for tests
-                                                     .append(" from the current method context")
-                                                     .append(" or add it to the context of")
-                                                     .append(violation.candidate().clazz())
-                                                     .append("#")
-                                                     .append(violation.candidate().method()));
-
-        return Description.builder(node, this.canonicalName(), this.linkUrl(), msgBuilder.toString())
+    public Description describe(Tree node, String msg) {
+        return Description.builder(node, this.canonicalName(), this.linkUrl(), msg)
                           .build();
     }
 }
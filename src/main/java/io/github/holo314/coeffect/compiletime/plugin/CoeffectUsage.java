@@ -0,0 +1,68 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.util.Context;
+
+/**
+ * A cheap pre-check that decides whether a compilation unit can produce any Coeffect diagnostic.<br>
+ * A unit can only violate the checks if it invokes or references a symbol that requires context ({@code @WithContext} methods and {@code Coeffect#get}), or declares a method with {@code @WithContext} (which is the only way to violate the covariance with inheritance, an empty context is covariant to every context).
+ * The scan stops at the first such tree, and does not track any scope.
+ */
+public final class CoeffectUsage
+        extends TreeScanner<Void, Void> {
+    private final ContextResolver resolver;
+    private final ContextTypes types;
+    private boolean found = false;
+
+    private CoeffectUsage(Context context) {
+        this.resolver = ContextResolver.instance(context);
+        this.types = ContextTypes.instance(context);
+    }
+
+    /**
+     * @param tree A compilation unit or a class
+     * @return false if the tree certainly does not involve Coeffect, in which case all the checks can be skipped
+     */
+    public static boolean mayUseCoeffect(Tree tree, Context context) {
+        if (!ContextTypes.instance(context).coeffectAvailable()) {
+            return false;
+        }
+        var usage = new CoeffectUsage(context);
+        usage.scan(tree, null);
+        return usage.found;
+    }
+
+    @Override
+    public Void scan(Tree tree, Void unused) {
+        return found ? null : super.scan(tree, unused);
+    }
+
+    @Override
+    public Void visitMethod(MethodTree methodTree, Void unused) {
+        found |= !resolver.contextOf(((JCTree.JCMethodDecl)methodTree).sym).isEmpty();
+        return super.visitMethod(methodTree, unused);
+    }
+
+    @Override
+    public Void visitMethodInvocation(MethodInvocationTree methodInv, Void unused) {
+        found |= requiresContext(TreeInfo.symbol((JCTree)methodInv.getMethodSelect()));
+        return super.visitMethodInvocation(methodInv, unused);
+    }
+
+    @Override
+    public Void visitMemberReference(MemberReferenceTree referenceTree, Void unused) {
+        found |= requiresContext(((JCTree.JCMemberReference)referenceTree).sym);
+        return super.visitMemberReference(referenceTree, unused);
+    }
+
+    private boolean requiresContext(Symbol symbol) {
+        return types.isCoeffectGet(symbol) || !resolver.contextOf(symbol).isEmpty();
+    }
+}
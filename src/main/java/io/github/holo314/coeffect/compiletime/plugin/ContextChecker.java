@@ -0,0 +1,156 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.util.Context;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The Coeffect checks over a single compilation unit: missing context of invocations and member references, non-literal {@code Coeffect.get(...)} and the covariance of {@code @WithContext} with inheritance.<br>
+ * The checker does not depend on the way it is hooked into the compiler, every violation is passed to the reporter together with its message.
+ */
+public class ContextChecker
+        extends ContextScanner {
+    private final InheritanceUtils inheritance;
+    private final String checkName;
+    private final BiConsumer<Tree, String> reporter;
+
+    /**
+     * @param checkName The name used to suppress the checks with {@code @SuppressWarnings}
+     * @param reporter  Receives the tree of every violation and its message
+     */
+    public ContextChecker(Context context, String checkName, BiConsumer<Tree, String> reporter) {
+        super(context);
+        this.inheritance = InheritanceUtils.instance(context);
+        this.checkName = checkName;
+        this.reporter = reporter;
+    }
+
+    @Override
+    protected void visitPath(CoeffectPath path) {
+        var missings = path.getMissingRequirements();
+        if (!missings.isEmpty()) {
+            reporter.accept(path.expressionTree(), contextViolationMessage(path, missings, types));
+        }
+    }
+
+    @Override
+    protected void visitLiteralViolation(ExpressionTree tree, String message) {
+        reporter.accept(tree, message);
+    }
+
+    @Override
+    public Void visitClass(ClassTree classTree, Void unused) {
+        return isSuppressed(((JCTree.JCClassDecl)classTree).sym) ? null : super.visitClass(classTree, unused);
+    }
+
+    @Override
+    public Void visitVariable(VariableTree variableTree, Void unused) {
+        return isSuppressed(((JCTree.JCVariableDecl)variableTree).sym) ? null : super.visitVariable(variableTree, unused);
+    }
+
+    @Override
+    public Void visitMethod(MethodTree methodTree, Void unused) {
+        var methodSymbol = ((JCTree.JCMethodDecl)methodTree).sym;
+        if (isSuppressed(methodSymbol)) {
+            return null;
+        }
+        checkInheritance(methodTree, methodSymbol);
+        return super.visitMethod(methodTree, unused);
+    }
+
+    private void checkInheritance(MethodTree methodTree, Symbol.MethodSymbol methodSymbol) {
+        var specifiedRequirements = resolver.contextOf(methodSymbol);
+        if (specifiedRequirements.isEmpty()) {
+            return; // an empty context is a subset of the context of every super method
+        }
+
+        var covariant = inheritance.superMethods(methodSymbol)
+                                   .map(candidate -> candidate.getContext(resolver))
+                                   .filter(requirement -> !requirement.context().containsAll(specifiedRequirements))
+                                   .toList();
+
+        if (!covariant.isEmpty()) {
+            reporter.accept(methodTree, inheritanceViolationMessage(covariant, specifiedRequirements, types));
+        }
+    }
+
+    private boolean isSuppressed(Symbol symbol) {
+        return isSuppressed(symbol, checkName);
+    }
+
+    /**
+     * @return true iff the symbol is annotated with {@code @SuppressWarnings} that contains the name of the check
+     */
+    static boolean isSuppressed(Symbol symbol, String checkName) {
+        var suppressions = symbol == null ? null : symbol.getAnnotation(SuppressWarnings.class);
+        return suppressions != null && Arrays.asList(suppressions.value()).contains(checkName);
+    }
+
+    public static String contextViolationMessage(CoeffectPath node, ContextSet missings, ContextTypes types) {
+        var callExpression = switch (node.expressionTree()) {
+            case JCTree.JCMethodInvocation invocation -> {
+                var args = invocation.getArguments()
+                                     .map(JCTree::toString)
+                                     .toString(", ");
+                var name = TreeInfo.name(invocation.getMethodSelect());
+                yield (name == null ? invocation.getMethodSelect().toString() : name.toString()) + "(" + args + ")";
+            }
+            default -> node.expressionTree().toString();
+        };
+
+        //noinspection StringBufferReplaceableByString
+        return new StringBuilder()
+                .append("Missing requirements in `")
+                .append(callExpression)
+                .append("`. Required types for the call: ")
+                .append(types.namesOf(node.requirements())) // all sets are sorted for consistent tests
+                .append(", bounded types: ")
+                .append(types.namesOf(node.explicitlyBounded()))
+                .append(", context types: ")
+                .append(types.namesOf(node.enclosingBounds()))
+                .append(", missing types: ")
+                .append(types.namesOf(missings))
+                .append(". Either bind the missing types with Coeffect#with method before call the method or add the missing types to the context of the current method via @WithContext annotation.")
+                .toString();
+    }
+
+    public static String inheritanceViolationMessage(
+            List<InheritanceUtils.Contextual> covariantViolation, ContextSet specifiedRequirements, ContextTypes types
+    ) {
+        var msgBuilder = new StringBuilder()
+                .append("Method requires ")
+                .append(types.namesOf(specifiedRequirements)) // transform to sorted list for tests
+                .append(" but implements:");
+
+        covariantViolation.stream().sorted(Comparator.comparing(Record::toString))
+                          .forEach(violation ->
+                                           msgBuilder.append(System.lineSeparator())
+                                                     .append("\t")
+                                                     .append(violation.candidate().clazz())
+                                                     .append("#")
+                                                     .append(violation.candidate().method())
+                                                     .append(" which requires ")
+                                                     .append(types.namesOf(violation.context())) // transform to sorted list for tests
+                                                     .append(".")
+                                                     .append(" Remove ")
+                                                     .append(types.namesOf(specifiedRequirements.difference(violation.context()))) // transform to sorted list for tests
+                                                     .append(" from the current method context")
+                                                     .append(" or add it to the context of")
+                                                     .append(violation.candidate().clazz())
+                                                     .append("#")
+                                                     .append(violation.candidate().method()));
+
+        return msgBuilder.toString();
+    }
+}
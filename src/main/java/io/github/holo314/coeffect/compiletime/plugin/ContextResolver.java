@@ -0,0 +1,179 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.sun.tools.javac.code.Attribute;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.util.Context;
+import io.github.holo314.coeffect.compiletime.annotations.DelegateContext;
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+import io.github.holo314.coeffect.compiletime.index.ContextIndex;
+
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Resolves the {@link WithContext} and {@link DelegateContext} declarations of symbols.<br>
+ * There is a single instance per compilation (see {@link #instance(Context)}), every symbol is resolved at most once, and the values are read directly from the {@link Attribute.Compound} of the annotation instead of going through {@code Symbol#getAnnotation}, which requires catching a {@link javax.lang.model.type.MirroredTypesException} for every {@link Class} value.
+ * The context of methods that are read from classfiles is taken from the {@link ContextIndex} of their module when the classpath entry of the classfile has one, which avoids completing their annotations.
+ */
+public final class ContextResolver {
+    private static final Context.Key<ContextResolver> KEY = new Context.Key<>();
+
+    private final ContextTypes types;
+    private final Types javacTypes;
+    private final JavaFileManager fileManager;
+    private final Map<Symbol, ContextSet> contexts = new HashMap<>();
+    private final Map<Symbol, Delegation> delegations = new HashMap<>();
+    private Map<String, ContextIndex> indices; // by container, loaded the first time a symbol from a classfile is resolved
+
+    private ContextResolver(Context context) {
+        context.put(KEY, this);
+        this.types = ContextTypes.instance(context);
+        this.javacTypes = Types.instance(context);
+        this.fileManager = context.get(JavaFileManager.class);
+    }
+
+    public static ContextResolver instance(Context context) {
+        var instance = context.get(KEY);
+        return instance == null ? new ContextResolver(context) : instance;
+    }
+
+    /**
+     * @return The types declared in the {@link WithContext} annotation of the symbol, or an empty set if there is no such annotation
+     */
+    public ContextSet contextOf(Symbol symbol) {
+        var context = contexts.get(symbol);
+        if (context == null) {
+            context = readContext(symbol);
+            contexts.put(symbol, context);
+        }
+        return context;
+    }
+
+    /**
+     * @return The {@link DelegateContext} declaration of the symbol, or null if the symbol is not annotated with {@link DelegateContext}
+     */
+    public Delegation delegationOf(Symbol symbol) {
+        if (delegations.containsKey(symbol)) {
+            return delegations.get(symbol);
+        }
+        var delegation = readDelegation(symbol);
+        delegations.put(symbol, delegation);
+        return delegation;
+    }
+
+    private ContextSet readContext(Symbol symbol) {
+        if (symbol instanceof Symbol.MethodSymbol method && fromClassfile(method)) {
+            var indexed = readIndexedContext(method);
+            if (indexed != null) {
+                return indexed;
+            }
+        }
+        var annotation = findAnnotation(symbol, WithContext.class.getCanonicalName());
+        if (annotation == null) {
+            return ContextSet.EMPTY;
+        }
+        var result = ContextSet.EMPTY;
+        for (var element : annotation.getElementValues().entrySet()) {
+            if (!element.getKey().name.contentEquals("value")) {
+                continue;
+            }
+            var value = element.getValue();
+            var classes = value instanceof Attribute.Array array ? array.values : new Attribute[]{value};
+            for (var type : classes) {
+                result = result.with(types.idOf(((Attribute.Class)type).getValue()));
+            }
+        }
+        return result;
+    }
+
+    private static boolean fromClassfile(Symbol.MethodSymbol method) {
+        var classfile = method.outermostClass().classfile;
+        return classfile != null && classfile.getKind() == JavaFileObject.Kind.CLASS;
+    }
+
+    /**
+     * @return The context of the method according to the {@link ContextIndex} of the classpath entry of its classfile, or null if that entry has no index or the index has no entry for the method
+     */
+    private ContextSet readIndexedContext(Symbol.MethodSymbol method) {
+        if (indices == null) {
+            indices = fileManager == null ? Map.of() : ContextIndex.load(fileManager);
+        }
+        if (indices.isEmpty()) {
+            return null;
+        }
+        var outermost = method.outermostClass();
+        var container = ContextIndex.containerOf(outermost.classfile, outermost.flatName().toString().replace('.', '/') + ".class");
+        var index = container == null ? null : indices.get(container);
+        if (index == null) {
+            return null;
+        }
+        var context = index.contextOf(method.enclClass().flatName().toString(),
+                                      ContextIndex.methodKey(method.name, javacTypes.erasure(method.type).getParameterTypes()));
+        if (context == null) {
+            return null;
+        }
+        var result = ContextSet.EMPTY;
+        for (var type : context) {
+            result = result.with(types.idOf(type));
+        }
+        return result;
+    }
+
+    private static Delegation readDelegation(Symbol symbol) {
+        var annotation = findAnnotation(symbol, DelegateContext.class.getCanonicalName());
+        if (annotation == null) {
+            return null;
+        }
+        var positions = new HashSet<Integer>();
+        var names = new HashSet<String>();
+        annotation.getElementValues()
+                  .forEach((element, value) -> {
+                      if (element.name.contentEquals("variablePositions")) {
+                          forEachValue(value, position -> positions.add((Integer)((Attribute.Constant)position).getValue()));
+                      } else if (element.name.contentEquals("variableNames")) {
+                          forEachValue(value, name -> names.add((String)((Attribute.Constant)name).getValue()));
+                      }
+                  });
+        return new Delegation(Set.copyOf(positions), Set.copyOf(names));
+    }
+
+    private static Attribute.Compound findAnnotation(Symbol symbol, String annotationName) {
+        if (symbol == null) {
+            return null;
+        }
+        for (var annotation : symbol.getAnnotationMirrors()) {
+            if (annotation.type.tsym.getQualifiedName().contentEquals(annotationName)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Array valued elements with a single value may be written without braces, in which case they are not wrapped in an {@link Attribute.Array}
+     */
+    private static void forEachValue(Attribute value, Consumer<Attribute> action) {
+        if (value instanceof Attribute.Array array) {
+            for (var element : array.values) {
+                action.accept(element);
+            }
+        } else {
+            action.accept(value);
+        }
+    }
+
+    /**
+     * The parameters of a {@link DelegateContext} annotation, when both sets are empty the annotation applies to all parameters
+     */
+    public record Delegation(Set<Integer> variablePositions, Set<String> variableNames) {
+        public boolean appliesToAll() {
+            return variablePositions.isEmpty() && variableNames.isEmpty();
+        }
+    }
+}
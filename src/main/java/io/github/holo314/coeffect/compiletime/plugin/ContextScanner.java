@@ -0,0 +1,205 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.LambdaExpressionTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.util.Context;
+
+/**
+ * Walks a compilation unit once while keeping track of the context that is available at every point of the tree:
+ * <ul>
+ *     <li>The enclosing bounds, the {@code @WithContext} of the enclosing method, of the constructor for initializers, or of the abstract method of the interface a (non-delegated) lambda implements</li>
+ *     <li>The explicitly bounded types, the types bound by every {@code Carrier#run}/{@code Carrier#call} invocation between the current tree and the enclosing method or class</li>
+ * </ul>
+ * Both are saved and restored when entering and leaving scopes, so every invocation is checked in O(1) instead of walking its parents.
+ * The enclosing bounds of a scope are only resolved the first time a tree inside it requires context, and invocations of symbols that cannot require context are rejected before anything else is computed, so code that does not use Coeffect costs little more than the walk itself.
+ */
+public abstract class ContextScanner
+        extends TreePathScanner<Void, Void> {
+    protected final ContextResolver resolver;
+    protected final ContextTypes types;
+
+    private Scope scope;
+    private ContextSet explicitlyBounded = ContextSet.EMPTY;
+
+    protected ContextScanner(Context context) {
+        this.resolver = ContextResolver.instance(context);
+        this.types = ContextTypes.instance(context);
+    }
+
+    /**
+     * Called for every method invocation and member reference that has requirements
+     */
+    protected abstract void visitPath(CoeffectPath path);
+
+    /**
+     * Called for every {@code Coeffect.get(...)} that is not invoked with a class literal
+     */
+    protected abstract void visitLiteralViolation(ExpressionTree tree, String message);
+
+    /**
+     * @return The context of the current scope, see {@link ContextScanner}
+     */
+    protected ContextSet enclosingBounds() {
+        return scope == null ? ContextSet.EMPTY : scope.bounds();
+    }
+
+    /**
+     * @return The types bound by the {@code Carrier#run}/{@code Carrier#call} clauses around the current tree
+     */
+    protected ContextSet explicitlyBounded() {
+        return explicitlyBounded;
+    }
+
+    /**
+     * @return The tree that defines {@link #enclosingBounds()}: a method, a non-delegated lambda, a class (for initializers) or a static initializer
+     */
+    protected Tree scopeOwner() {
+        return scope == null ? null : scope.owner().path.getLeaf();
+    }
+
+    @Override
+    public Void visitClass(ClassTree classTree, Void unused) {
+        return inScope(ContextSet.EMPTY, () -> super.visitClass(classTree, unused));
+    }
+
+    @Override
+    public Void visitMethod(MethodTree methodTree, Void unused) {
+        return inScope(ContextSet.EMPTY, () -> super.visitMethod(methodTree, unused));
+    }
+
+    @Override
+    public Void visitBlock(BlockTree blockTree, Void unused) {
+        if (blockTree.isStatic()) { // static init block
+            return inScope(explicitlyBounded, () -> super.visitBlock(blockTree, unused));
+        }
+        return super.visitBlock(blockTree, unused);
+    }
+
+    @Override
+    public Void visitLambdaExpression(LambdaExpressionTree lambdaTree, Void unused) {
+        return inScope(explicitlyBounded, () -> super.visitLambdaExpression(lambdaTree, unused));
+    }
+
+    @Override
+    public Void visitMethodInvocation(MethodInvocationTree methodInv, Void unused) {
+        var outerBounded = explicitlyBounded;
+        if (methodInv.getMethodSelect() instanceof JCTree.JCFieldAccess access
+                && (access.name.contentEquals("call") || access.name.contentEquals("run"))
+                && types.isCarrier(access.selected.type.tsym)) {
+            for (var bound : CoeffectPath.extractCarrierContext(access.selected.type, types)) {
+                explicitlyBounded = explicitlyBounded.with(types.idOf(bound));
+            }
+        }
+        try {
+            check(methodInv, TreeInfo.symbol((JCTree)methodInv.getMethodSelect()));
+            return super.visitMethodInvocation(methodInv, unused);
+        } finally {
+            explicitlyBounded = outerBounded;
+        }
+    }
+
+    @Override
+    public Void visitMemberReference(MemberReferenceTree referenceTree, Void unused) {
+        check(referenceTree, ((JCTree.JCMemberReference)referenceTree).sym);
+        return super.visitMemberReference(referenceTree, unused);
+    }
+
+    /**
+     * @return true iff the lambda is passed directly to a method annotated with {@code @DelegateContext} that delegates it, in which case the lambda uses the context of the invocation
+     */
+    protected boolean isDelegated(TreePath lambdaPath) {
+        return lambdaPath.getParentPath().getLeaf() instanceof JCTree.JCMethodInvocation methodInvocation
+                && methodInvocation.getMethodSelect() instanceof JCTree.JCFieldAccess fieldAccess
+                && fieldAccess.sym instanceof Symbol.MethodSymbol methodSymbol
+                && TreeUtils.lambdaRunsInEnclosingMethod((JCTree.JCLambda)lambdaPath.getLeaf(), methodInvocation, methodSymbol, resolver.delegationOf(methodSymbol));
+    }
+
+    private void check(ExpressionTree tree, Symbol symbol) {
+        if (resolver.contextOf(symbol).isEmpty() && !types.isCoeffectGet(symbol)) {
+            return; // fast path, the vast majority of invocations
+        }
+
+        ContextSet requirements;
+        try {
+            requirements = CoeffectPath.extractRequirements(tree, resolver, types);
+        } catch (IllegalStateException e) {
+            visitLiteralViolation(tree, e.getMessage());
+            return;
+        }
+        if (!requirements.isEmpty()) {
+            visitPath(new CoeffectPath(tree, explicitlyBounded, enclosingBounds(), requirements));
+        }
+    }
+
+    /**
+     * Enters the scope of the current tree, classes and methods reset the explicitly bounded types since a carrier cannot be used across them
+     */
+    private Void inScope(ContextSet bounded, Runnable scan) {
+        var outerScope = scope;
+        var outerBounded = explicitlyBounded;
+        scope = new Scope(getCurrentPath(), outerScope);
+        explicitlyBounded = bounded;
+        try {
+            scan.run();
+        } finally {
+            scope = outerScope;
+            explicitlyBounded = outerBounded;
+        }
+        return null;
+    }
+
+    private final class Scope {
+        private final TreePath path;
+        private final Scope parent;
+        private ContextSet bounds;
+
+        private Scope(TreePath path, Scope parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+
+        private ContextSet bounds() {
+            if (bounds == null) {
+                bounds = resolveBounds();
+            }
+            return bounds;
+        }
+
+        /**
+         * @return The scope that defines the bounds, delegated lambdas use the bounds of the scope they appear in
+         */
+        private Scope owner() {
+            return delegated() ? parent.owner() : this;
+        }
+
+        private boolean delegated() {
+            return path.getLeaf() instanceof LambdaExpressionTree && parent != null && isDelegated(path);
+        }
+
+        private ContextSet resolveBounds() {
+            return switch (path.getLeaf()) {
+                case JCTree.JCBlock ignore -> ContextSet.EMPTY; // static init block
+                case JCTree.JCClassDecl classDecl -> { // handle initializers as a part of the constructor
+                    var constructor = TreeUtils.getConstructorFromClassDecl(classDecl);
+                    yield constructor == null ? ContextSet.EMPTY : resolver.contextOf(constructor.sym);
+                }
+                case JCTree.JCMethodDecl methodDecl -> resolver.contextOf(methodDecl.sym);
+                case JCTree.JCLambda lambdaDecl -> delegated() ? parent.bounds()
+                                                               : resolver.contextOf(TreeUtils.getAbstractMethodFromSAMInterface(lambdaDecl));
+                default ->
+                        throw new IllegalStateException("Coeffect detected an unexpected type graph, please report a bug to the Coeffect git repository");
+            };
+        }
+    }
+}
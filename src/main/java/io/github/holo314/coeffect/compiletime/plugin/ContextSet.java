@@ -0,0 +1,106 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable set of context types, represented as a bitset over the ids given by {@link ContextTypes}.<br>
+ * Ids are only meaningful within a single compilation, so sets of different compilations must never be mixed.
+ */
+public final class ContextSet {
+    public static final ContextSet EMPTY = new ContextSet(new long[0]);
+
+    private final long[] words; // never has trailing zero words, so Arrays.equals is the set equality
+
+    private ContextSet(long[] words) {
+        this.words = words;
+    }
+
+    public static ContextSet of(int id) {
+        return EMPTY.with(id);
+    }
+
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    public boolean contains(int id) {
+        var index = id >>> 6;
+        return index < words.length && (words[index] & (1L << id)) != 0;
+    }
+
+    public boolean containsAll(ContextSet other) {
+        if (other.words.length > words.length) {
+            return false;
+        }
+        for (var i = 0; i < other.words.length; i++) {
+            if ((other.words[i] & ~words[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public ContextSet with(int id) {
+        if (contains(id)) {
+            return this;
+        }
+        var result = Arrays.copyOf(words, Math.max(words.length, (id >>> 6) + 1));
+        result[id >>> 6] |= 1L << id;
+        return new ContextSet(result);
+    }
+
+    public ContextSet union(ContextSet other) {
+        if (other.isEmpty() || containsAll(other)) {
+            return this;
+        }
+        if (isEmpty() || other.containsAll(this)) {
+            return other;
+        }
+        var longer = words.length >= other.words.length ? words : other.words;
+        var shorter = longer == words ? other.words : words;
+        var result = longer.clone();
+        for (var i = 0; i < shorter.length; i++) {
+            result[i] |= shorter[i];
+        }
+        return new ContextSet(result);
+    }
+
+    public ContextSet difference(ContextSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return this;
+        }
+        var result = words.clone();
+        for (var i = 0; i < Math.min(result.length, other.words.length); i++) {
+            result[i] &= ~other.words[i];
+        }
+        return trimmed(result);
+    }
+
+    public IntStream ids() {
+        return IntStream.range(0, words.length << 6).filter(this::contains);
+    }
+
+    private static ContextSet trimmed(long[] words) {
+        var length = words.length;
+        while (length > 0 && words[length - 1] == 0) {
+            length--;
+        }
+        return length == 0 ? EMPTY : new ContextSet(length == words.length ? words : Arrays.copyOf(words, length));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ContextSet other && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(ids().toArray());
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.util.Context;
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+import io.github.holo314.coeffect.runtime.Coeffect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns context types into small integer ids used by {@link ContextSet}, and identifies the symbols of the Coeffect runtime.<br>
+ * There is a single instance per compilation (see {@link #instance(Context)}). Two types get the same id iff they have the same fully qualified name (including type arguments), which is the name used in diagnostics.
+ */
+public final class ContextTypes {
+    private static final Context.Key<ContextTypes> KEY = new Context.Key<>();
+
+    private final Map<Type, Integer> idsByType = new IdentityHashMap<>();
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    private final Symbol classSymbol;
+    private final Symbol voidSymbol;
+    private final Symbol coeffectSymbol;
+    private final Symbol carrierSymbol;
+    private final Symbol withContextSymbol;
+
+    private ContextTypes(Context context) {
+        context.put(KEY, this);
+        var symtab = Symtab.instance(context);
+        var elements = JavacElements.instance(context);
+        this.classSymbol = symtab.classType.tsym;
+        this.voidSymbol = elements.getTypeElement(Void.class.getCanonicalName());
+        // null when the runtime is not on the classpath, in which case nothing can require context
+        this.coeffectSymbol = elements.getTypeElement(Coeffect.class.getCanonicalName());
+        this.carrierSymbol = elements.getTypeElement(Coeffect.Carrier.class.getCanonicalName());
+        this.withContextSymbol = elements.getTypeElement(WithContext.class.getCanonicalName());
+    }
+
+    public static ContextTypes instance(Context context) {
+        var instance = context.get(KEY);
+        return instance == null ? new ContextTypes(context) : instance;
+    }
+
+    public int idOf(Type type) {
+        var id = idsByType.get(type);
+        if (id == null) {
+            id = idOf(type.toString());
+            idsByType.put(type, id);
+        }
+        return id;
+    }
+
+    public int idOf(String name) {
+        var id = idsByName.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            idsByName.put(name, id);
+        }
+        return id;
+    }
+
+    public String nameOf(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @return The names of the types in the set, sorted for consistent diagnostics
+     */
+    public List<String> namesOf(ContextSet set) {
+        return set.ids().mapToObj(this::nameOf).sorted().toList();
+    }
+
+    /**
+     * @return false if neither the runtime nor the {@link WithContext} annotation are on the classpath of the compilation, in which case nothing can require context
+     */
+    public boolean coeffectAvailable() {
+        return coeffectSymbol != null || withContextSymbol != null;
+    }
+
+    public boolean isCoeffect(Symbol symbol) {
+        return symbol != null && symbol == coeffectSymbol;
+    }
+
+    /**
+     * @return true iff the symbol is {@code Coeffect#get}, the only runtime method that requires context without declaring it
+     */
+    public boolean isCoeffectGet(Symbol symbol) {
+        return symbol instanceof Symbol.MethodSymbol && isCoeffect(symbol.owner) && symbol.name.contentEquals("get");
+    }
+
+    public boolean isCarrier(Symbol symbol) {
+        return symbol != null && symbol == carrierSymbol;
+    }
+
+    public boolean isVoid(Symbol symbol) {
+        return symbol != null && symbol == voidSymbol;
+    }
+
+    public boolean isClass(Symbol symbol) {
+        return symbol != null && symbol == classSymbol;
+    }
+}
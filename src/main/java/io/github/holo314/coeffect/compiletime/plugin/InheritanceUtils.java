@@ -1,59 +1,84 @@
 package io.github.holo314.coeffect.compiletime.plugin;
 
-import com.google.common.collect.Lists;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.Name;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
 
+/**
+ * Caches the flattened hierarchies and the candidates of every (class, name) pair for the whole compilation, see {@link #instance(Context)}.
+ */
 public class InheritanceUtils {
-    public static Set<Symbol.ClassSymbol> getInheritanceFlatten(Symbol.ClassSymbol clazz) {
-        var acc = new HashSet<Symbol.ClassSymbol>();
-        accumulateInterfacesFlatten(clazz, acc);
-        for (Symbol.ClassSymbol sClazz = (Symbol.ClassSymbol)clazz.getSuperclass().tsym;
-             sClazz != null;
-             sClazz = (Symbol.ClassSymbol)sClazz.getSuperclass().tsym) {
-            acc.add(sClazz);
-            accumulateInterfacesFlatten(sClazz, acc);
-        }
-        return acc;
-    }
+    private static final Context.Key<InheritanceUtils> KEY = new Context.Key<>();
 
-    public static Set<Symbol.ClassSymbol> getInterfacesFlatten(Symbol.ClassSymbol clazz) {
-        var acc = new HashSet<Symbol.ClassSymbol>();
-        accumulateInterfacesFlatten(clazz, acc);
-        return acc;
+    private final Types types;
+    private final Map<Symbol.ClassSymbol, Set<Symbol.ClassSymbol>> flattened = new HashMap<>();
+    private final Map<Symbol.ClassSymbol, Map<Name, Candidates>> candidates = new HashMap<>();
+
+    private InheritanceUtils(Context context) {
+        context.put(KEY, this);
+        this.types = Types.instance(context);
     }
 
-    private static void accumulateInterfacesFlatten(Symbol.ClassSymbol clazz, HashSet<Symbol.ClassSymbol> acc) {
-        var directInterfaces = clazz.getInterfaces()
-                                    .stream()
-                                    .map(type -> type.tsym)
-                                    .map(Symbol.ClassSymbol.class::cast)
-                                    .toList();
-        directInterfaces.forEach(directInterface -> accumulateInterfacesFlatten(directInterface, acc));
-        acc.addAll(directInterfaces);
+    public static InheritanceUtils instance(Context context) {
+        var instance = context.get(KEY);
+        return instance == null ? new InheritanceUtils(context) : instance;
     }
 
-    public static Stream<Candidate> getSuperMethods(Symbol.MethodSymbol methodSymbol, Types types) {
+    /**
+     * @return All the supertypes of the class, the hierarchy of every direct supertype is cached as well, so shared ancestors are walked once per compilation
+     */
+    public Set<Symbol.ClassSymbol> inheritanceFlatten(Symbol.ClassSymbol clazz) {
+        var result = flattened.get(clazz);
+        if (result != null) {
+            return result;
+        }
+        var acc = new HashSet<Symbol.ClassSymbol>();
+        if (clazz.getSuperclass().tsym instanceof Symbol.ClassSymbol superclass) {
+            acc.add(superclass);
+            acc.addAll(inheritanceFlatten(superclass));
+        }
+        for (var directInterface : clazz.getInterfaces()) {
+            if (directInterface.tsym instanceof Symbol.ClassSymbol interfaceSymbol) {
+                acc.add(interfaceSymbol);
+                acc.addAll(inheritanceFlatten(interfaceSymbol));
+            }
+        }
+        result = Set.copyOf(acc);
+        flattened.put(clazz, result);
+        return result;
+    }
 
+    /**
+     * @return The methods of the supertypes that the method overrides
+     */
+    public Stream<Candidate> superMethods(Symbol.MethodSymbol methodSymbol) {
         var classSymbol = (Symbol.ClassSymbol)methodSymbol.owner;
 
-        var superClasses = InheritanceUtils.getInheritanceFlatten(classSymbol);
-        return superClasses.stream()
-                           .map(clazz -> InheritanceUtils.Candidates.of(clazz, methodSymbol.name))
-                           .flatMap(InheritanceUtils.Candidates::split)
-                           .filter(candidate -> methodSymbol.overrides(candidate.method(), candidate.clazz(), types, true, false));
+        return inheritanceFlatten(classSymbol).stream()
+                                              .map(clazz -> candidatesOf(clazz, methodSymbol.name))
+                                              .flatMap(InheritanceUtils.Candidates::split)
+                                              .filter(candidate -> methodSymbol.overrides(candidate.method(), candidate.clazz(), types, true, false));
+    }
+
+    private Candidates candidatesOf(Symbol.ClassSymbol clazz, Name name) {
+        return candidates.computeIfAbsent(clazz, ignore -> new HashMap<>())
+                         .computeIfAbsent(name, ignore -> Candidates.of(clazz, name));
     }
 
     public record Candidates(Symbol.ClassSymbol clazz, List<Symbol> methods, Name name) {
         public static Candidates of(Symbol.ClassSymbol clazz, Name name) {
-            var candidates = clazz.members().getSymbolsByName(name, Symbol.MethodSymbol.class::isInstance);
-            return new Candidates(clazz, Lists.newArrayList(candidates), name);
+            var candidates = new ArrayList<Symbol>();
+            clazz.members().getSymbolsByName(name, Symbol.MethodSymbol.class::isInstance).forEach(candidates::add);
+            return new Candidates(clazz, candidates, name);
         }
 
         public Stream<Candidate> split() {
@@ -62,10 +87,10 @@ public class InheritanceUtils {
     }
 
     public record Candidate(Symbol.ClassSymbol clazz, Symbol.MethodSymbol method, Name name) {
-        public Contextual getContext() {
-            return new Contextual(this, CoeffectPath.getContextOfSymbol(method()));
+        public Contextual getContext(ContextResolver resolver) {
+            return new Contextual(this, resolver.contextOf(method()));
         }
     }
 
-    public record Contextual(Candidate candidate, Set<String> context) {}
+    public record Contextual(Candidate candidate, ContextSet context) {}
 }
@@ -0,0 +1,230 @@
+package io.github.holo314.coeffect.compiletime.plugin;
+
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.api.JavacTrees;
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.util.Context;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The context that the methods of the compilation actually require, as opposed to the context they declare.<br>
+ * The requirement of a method is the union of the requirements of its invocations and member references that are not bound by an enclosing {@code Carrier#run}/{@code Carrier#call}.
+ * The requirement of a call to a method of the compilation that cannot be overridden is the requirement of the callee itself, so the requirements are computed as a least fixpoint over the calls between such methods, across all the units of the compilation.
+ * Calls to any other method (methods read from classfiles, abstract and overridable methods, constructors, methods whose {@code CoeffectOverDeclared} warning is suppressed) require the declared context of the callee: the overrides of an overridable method may be compiled later, by other modules, and the declared context is the bound they have to respect.
+ * <p>
+ * There is a single instance per compilation (see {@link #instance(Context)}), and the requirement of every method is computed at most once.
+ * The trees of the other units are read through {@link JavacTrees}. Methods of classes that are not attributed yet are not analyzed, under {@code -XDcompilePolicy=simple} all the units are attributed before any check runs, under {@code byfile} only the units that precede the current one are.
+ */
+public final class RequiredContexts {
+    private static final Context.Key<RequiredContexts> KEY = new Context.Key<>();
+    // a method whose report is suppressed keeps its declared context, so its callers must keep requiring it
+    private static final String CHECK_NAME = "CoeffectOverDeclared";
+
+    private final Context context;
+    private final ContextResolver resolver;
+    private final JavacTrees trees;
+    private final Map<Symbol.MethodSymbol, TreePath> paths = new HashMap<>(); // null for methods that are not analyzed
+    private final Map<Symbol.MethodSymbol, Summary> summaries = new HashMap<>();
+    private final Map<Symbol.MethodSymbol, ContextSet> required = new HashMap<>();
+
+    private RequiredContexts(Context context) {
+        context.put(KEY, this);
+        this.context = context;
+        this.resolver = ContextResolver.instance(context);
+        this.trees = JavacTrees.instance(context);
+    }
+
+    public static RequiredContexts instance(Context context) {
+        var instance = context.get(KEY);
+        return instance == null ? new RequiredContexts(context) : instance;
+    }
+
+    /**
+     * @return The requirements of the invocation or member reference of the path, with the declared context of the callee replaced by its actual requirement when the callee is analyzed (see {@link RequiredContexts})
+     */
+    public ContextSet requirementsOf(CoeffectPath path) {
+        var callee = calleeOf(path.expressionTree());
+        if (callee == null || pathOf(callee) == null) {
+            return path.requirements();
+        }
+        return path.requirements().difference(resolver.contextOf(callee)).union(requiredBy(callee));
+    }
+
+    /**
+     * @return The context the method actually requires if it is analyzed (see {@link RequiredContexts}), and its declared context otherwise
+     */
+    public ContextSet requiredBy(Symbol.MethodSymbol method) {
+        var result = required.get(method);
+        if (result != null) {
+            return result;
+        }
+        if (pathOf(method) == null) {
+            return resolver.contextOf(method);
+        }
+        solve(method);
+        return required.get(method);
+    }
+
+    /**
+     * @return true iff every override of the method is known when the method is compiled, i.e. it is a constructor, static, private or final, or a method of a final or anonymous class
+     */
+    static boolean cannotBeOverridden(Symbol.MethodSymbol method) {
+        var clazz = method.enclClass();
+        return method.isConstructor()
+               || (method.flags() & (Flags.STATIC | Flags.PRIVATE | Flags.FINAL)) != 0
+               || (clazz.flags() & Flags.FINAL) != 0
+               || clazz.isAnonymous();
+    }
+
+    /**
+     * Computes the least fixpoint of the requirements of all the analyzed methods that are reachable from the method, which only grow from one iteration to the next
+     */
+    private void solve(Symbol.MethodSymbol root) {
+        var reachable = new LinkedHashSet<Symbol.MethodSymbol>();
+        var pending = new ArrayDeque<Symbol.MethodSymbol>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            var method = pending.pop();
+            if (required.containsKey(method) || !reachable.add(method)) {
+                continue;
+            }
+            for (var call : summaryOf(method).calls()) {
+                pending.push(call.callee());
+            }
+        }
+
+        var current = new HashMap<Symbol.MethodSymbol, ContextSet>();
+        reachable.forEach(method -> current.put(method, ContextSet.EMPTY));
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var method : reachable) {
+                var summary = summaryOf(method);
+                var result = summary.unknown() ? resolver.contextOf(method) : summary.local();
+                if (!summary.unknown()) {
+                    for (var call : summary.calls()) {
+                        var callee = required.containsKey(call.callee()) ? required.get(call.callee()) : current.get(call.callee());
+                        result = result.union(callee.difference(call.bounded()));
+                    }
+                }
+                if (!result.equals(current.get(method))) {
+                    current.put(method, result);
+                    changed = true;
+                }
+            }
+        }
+        required.putAll(current);
+    }
+
+    /**
+     * @return The path of the declaration of the method, or null if the method is not analyzed: it is not declared in a unit of the compilation, its class is not attributed yet, it may be overridden, it has no body, or it declares no context (so no call to it is ever checked)
+     */
+    private TreePath pathOf(Symbol.MethodSymbol method) {
+        if (paths.containsKey(method)) {
+            return paths.get(method);
+        }
+        TreePath path = null;
+        if (!method.isConstructor() && cannotBeOverridden(method) && !resolver.contextOf(method).isEmpty()
+                && (method.enclClass().flags() & Flags.UNATTRIBUTED) == 0 && !suppressed(method)) {
+            path = trees.getPath(method); // null for methods read from classfiles
+            if (path != null && !(path.getLeaf() instanceof JCTree.JCMethodDecl methodDecl && methodDecl.getBody() != null)) {
+                path = null;
+            }
+        }
+        paths.put(method, path);
+        return path;
+    }
+
+    private static boolean suppressed(Symbol method) {
+        for (var symbol = method; symbol != null; symbol = symbol.owner) {
+            if (ContextChecker.isSuppressed(symbol, CHECK_NAME)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Must only be called for analyzed methods
+     */
+    private Summary summaryOf(Symbol.MethodSymbol method) {
+        var summary = summaries.get(method);
+        if (summary == null) {
+            var path = pathOf(method);
+            var scanner = new SummaryScanner(path.getLeaf());
+            scanner.scan(path, null);
+            summary = new Summary(scanner.local, List.copyOf(scanner.calls), scanner.unknown);
+            summaries.put(method, summary);
+        }
+        return summary;
+    }
+
+    private static Symbol.MethodSymbol calleeOf(ExpressionTree tree) {
+        var symbol = switch (tree) {
+            case JCTree.JCMethodInvocation invocation -> TreeInfo.symbol(invocation.getMethodSelect());
+            case JCTree.JCMemberReference reference -> reference.sym;
+            default -> null;
+        };
+        return symbol instanceof Symbol.MethodSymbol method ? method : null;
+    }
+
+    /**
+     * @param local   The requirements of the method that do not depend on other analyzed methods
+     * @param calls   The invocations and member references of analyzed methods
+     * @param unknown true iff the requirements cannot be computed, e.g. because of a {@code Coeffect.get(...)} without a class literal
+     */
+    private record Summary(ContextSet local, List<Call> calls, boolean unknown) {}
+
+    /**
+     * @param bounded The types bound around the call, which the callee does not require from the method
+     */
+    private record Call(Symbol.MethodSymbol callee, ContextSet bounded) {}
+
+    /**
+     * Collects the requirements of the scope of a single method, the requirements of nested lambdas that are not delegated and of nested classes belong to their own scopes
+     */
+    private final class SummaryScanner
+            extends ContextScanner {
+        private final Tree method;
+        private final List<Call> calls = new ArrayList<>();
+        private ContextSet local = ContextSet.EMPTY;
+        private boolean unknown = false;
+
+        private SummaryScanner(Tree method) {
+            super(context);
+            this.method = method;
+        }
+
+        @Override
+        protected void visitPath(CoeffectPath path) {
+            if (scopeOwner() != method) {
+                return;
+            }
+            var callee = calleeOf(path.expressionTree());
+            if (callee != null && pathOf(callee) != null) {
+                calls.add(new Call(callee, path.explicitlyBounded()));
+                local = local.union(path.requirements().difference(resolver.contextOf(callee)).difference(path.explicitlyBounded()));
+            } else {
+                local = local.union(path.requirements().difference(path.explicitlyBounded()));
+            }
+        }
+
+        @Override
+        protected void visitLiteralViolation(ExpressionTree tree, String message) {
+            if (scopeOwner() == method) {
+                unknown = true;
+            }
+        }
+    }
+}
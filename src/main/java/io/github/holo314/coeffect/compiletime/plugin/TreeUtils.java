@@ -4,9 +4,6 @@ import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.tree.JCTree;
 import io.github.holo314.coeffect.compiletime.annotations.DelegateContext;
 
-import java.util.Arrays;
-import java.util.stream.Collectors;
-
 public class TreeUtils {
     public static Symbol.TypeSymbol getSymbolOfLambdaType(JCTree.JCLambda lambdaDecl) {
         return lambdaDecl.type.asElement();
@@ -22,17 +19,21 @@ public class TreeUtils {
                 .orElseThrow(() -> new RuntimeException("Lambda expression doesn't have SAM type")); // shouldn't be possible
     }
 
-    public static boolean lambdaRunsInEnclosingMethod(JCTree.JCLambda lambdaDecl, JCTree.JCMethodInvocation inv, Symbol.MethodSymbol methodSymbol) {
-        var pPositions = Arrays.stream(methodSymbol.getAnnotation(DelegateContext.class).variablePositions()).boxed().collect(Collectors.toSet());
-        var pNames = Arrays.stream(methodSymbol.getAnnotation(DelegateContext.class).variableNames()).collect(Collectors.toSet());
-        if (!pNames.isEmpty() || !pPositions.isEmpty()) {
+    /**
+     * @param delegation The {@link DelegateContext} declaration of {@code methodSymbol}, or null if it is not annotated
+     */
+    public static boolean lambdaRunsInEnclosingMethod(JCTree.JCLambda lambdaDecl, JCTree.JCMethodInvocation inv, Symbol.MethodSymbol methodSymbol, ContextResolver.Delegation delegation) {
+        if (delegation == null) {
+            return false;
+        }
+        if (!delegation.appliesToAll()) {
             var paramsExpr = inv.args;
             var paramsDef = methodSymbol.getParameters();
 
             var myPos = paramsExpr.indexOf(lambdaDecl);
             var myName = paramsDef.get(myPos);
 
-            return pPositions.contains(myPos) || pNames.contains(myName.toString());
+            return delegation.variablePositions().contains(myPos) || delegation.variableNames().contains(myName.toString());
         }
         return true;
     }
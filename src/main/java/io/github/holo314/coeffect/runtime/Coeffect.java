@@ -3,8 +3,9 @@ package io.github.holo314.coeffect.runtime;
 import com.sun.tools.javac.code.Type;
 import io.github.holo314.coeffect.compiletime.annotations.DelegateContext;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.function.Supplier;
 
@@ -14,14 +15,44 @@ import java.util.function.Supplier;
  * when this is assumption is violated the best case scenario is an exception, worst case scenario is that the stack of the Coeffect will be shifted, which can cause both logical errors and security problems.
  */
 public final class Coeffect {
-    private static final Map<Class<?>, ScopedValue<Object>> COEFFECT = new HashMap<>();
+    /**
+     * The single {@link ScopedValue} of every type. The instances must be canonical: a binding is only visible to reads of the same instance, so the instance of a type is created here exactly once, even when several modules or threads request it concurrently.
+     * {@link ClassValue} caches the instance on the {@link Class} itself, so a lookup does not hash or lock.
+     */
+    private static final ClassValue<ScopedValue<Object>> COEFFECT = new ClassValue<>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected ScopedValue<Object> computeValue(Class<?> type) {
+            synchronized (KEYS_LOCK) {
+                var next = new ArrayList<WeakReference<Class<?>>>(keys.length + 1);
+                for (var key : keys) {
+                    // ClassValue may compute the value of a type more than once when threads race, only one of them is kept
+                    if (!key.refersTo(null) && !key.refersTo(type)) {
+                        next.add(key);
+                    }
+                }
+                next.add(new WeakReference<>(type));
+                keys = next.toArray(WeakReference[]::new);
+            }
+            return ScopedValue.newInstance();
+        }
+    };
 
-    static {
-        COEFFECT.put(void.class, ScopedValue.newInstance());
-    }
+    /**
+     * Every type that has a {@link ScopedValue}, used by {@link #capture()}. The array is replaced on every new type and never modified, so {@link #capture()} reads it without locking.
+     * The types are weakly referenced, like the values of {@link #COEFFECT}, so unloaded classes are not kept alive, and their references are dropped on the next write
+     */
+    @SuppressWarnings("unchecked")
+    private static volatile WeakReference<Class<?>>[] keys = new WeakReference[0];
+    private static final Object KEYS_LOCK = new Object(); // serializes the writers of keys
 
     private static final ScopedValue.Carrier baseExtentCarrier = ScopedValue.where(COEFFECT.get(void.class), null);
-    private static final Carrier<Void, Carrier<?, ?>> baseCarrier = new Carrier<>(baseExtentCarrier);
+    private static final Carrier<Void, Carrier<?, ?>> baseCarrier = new Carrier<>(baseExtentCarrier, void.class, null);
+
+    /**
+     * The nesting depth of {@link Carrier#run}/{@link Carrier#call} extents, only bound while {@link CoeffectStats} are enabled
+     */
+    private static final ScopedValue<Integer> EXTENT_DEPTH = ScopedValue.newInstance();
 
     /**
      * creates a new binding for type {@code value#getClass()}
@@ -44,11 +75,78 @@ public final class Coeffect {
         return baseCarrier.with(value, classKey);
     }
 
+    /**
+     * Creates the {@link ScopedValue} of every type listed in the {@value CoeffectKeys#RESOURCE} resources of the class loader up front, instead of on the first use of each type.<br>
+     * Nothing is loaded unless this method is called, call it once during startup with the class loader of the application.
+     *
+     * @param loader The class loader that finds the resources and loads the listed types
+     * @return The types that were loaded, types that cannot be loaded are skipped
+     */
+    public static List<Class<?>> preload(ClassLoader loader) {
+        var keys = CoeffectKeys.declared(loader);
+        for (var key : keys) {
+            COEFFECT.get(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Captures all the bindings of the current extent, so they can be bound again in another thread.<br>
+     * Unlike forking in a {@link java.util.concurrent.StructuredTaskScope}, the captured values are bound anew by the returned carrier, so the new extent does not depend on the current one to stay open.
+     *
+     * @return A carrier that binds every type that is bound in the current extent to its current value
+     */
+    public static Carrier<Void, Carrier<?, ?>> capture() {
+        var carrier = baseExtentCarrier;
+        for (var reference : keys) {
+            var key = reference.get();
+            if (key == null || key == void.class) {
+                continue;
+            }
+            var extent = COEFFECT.get(key);
+            if (extent.isBound()) {
+                carrier = carrier.where(extent, extent.get());
+            }
+        }
+        return new Carrier<>(carrier, void.class, null);
+    }
+
+    /**
+     * @return A carrier without bindings, for carriers whose types are only known at runtime (see {@link ContextWire})
+     */
+    static Carrier<Void, Carrier<?, ?>> emptyCarrier() {
+        return baseCarrier;
+    }
+
+    /**
+     * @return The value bound to the type in the current extent, or null if it is not bound. Unlike {@link #getOrNull} it is not counted by {@link CoeffectStats}
+     */
+    static Object boundOrNull(Class<?> c) {
+        var extent = COEFFECT.get(c);
+        return extent.isBound() ? extent.get() : null;
+    }
+
+    /**
+     * @return The management interface of the runtime statistics of Coeffect, see {@link CoeffectStatsMXBean}
+     */
+    public static CoeffectStatsMXBean stats() {
+        return CoeffectStats.INSTANCE;
+    }
+
     @SuppressWarnings({"unchecked"})
     public static <T> T get(Class<T> c)
             throws NoSuchElementException {
-        createInstance(c);
-        return (T)COEFFECT.get(c).get();
+        if (!CoeffectStats.active()) {
+            return (T)COEFFECT.get(c).get();
+        }
+
+        CoeffectStats.get(c);
+        try {
+            return (T)COEFFECT.get(c).get();
+        } catch (NoSuchElementException e) {
+            CoeffectStats.miss(c);
+            throw e;
+        }
     }
 
     public static <T> T getOrNull(Class<T> c) {
@@ -61,12 +159,18 @@ public final class Coeffect {
 
     @SuppressWarnings({"unchecked"})
     public static <T> T getOrSupply(Class<T> c, Supplier<T> defaultValue) {
-        createInstance(c);
         var extent = COEFFECT.get(c);
+        var statsActive = CoeffectStats.active();
+        if (statsActive) {
+            CoeffectStats.get(c);
+        }
         if (!extent.isBound()) {
+            if (statsActive) {
+                CoeffectStats.fallback(c);
+            }
             return defaultValue.get();
         }
-        return (T)COEFFECT.get(c).get();
+        return (T)extent.get();
     }
 
     /**
@@ -77,9 +181,13 @@ public final class Coeffect {
     public static final class Carrier<ValueType, Previous extends Carrier<?, ?>> {
 
         private final ScopedValue.Carrier innerCarrier;
+        private final Class<?> classKey;
+        private final Carrier<?, ?> previous;
 
-        private Carrier(ScopedValue.Carrier innerCarrier) {
+        private Carrier(ScopedValue.Carrier innerCarrier, Class<?> classKey, Carrier<?, ?> previous) {
             this.innerCarrier = innerCarrier;
+            this.classKey = classKey;
+            this.previous = previous;
         }
 
         /**
@@ -93,8 +201,7 @@ public final class Coeffect {
                 throw new NullPointerException("Value cannot be null, use 'bindNull' for binding null");
             }
             var classKey = value.getClass();
-            createInstance(classKey);
-            return new Carrier<>(innerCarrier.where(COEFFECT.get(classKey), value));
+            return bind(value, classKey);
         }
 
         /**
@@ -109,23 +216,47 @@ public final class Coeffect {
                 throw new NullPointerException("Value cannot be null, use 'bindNull' for binding null");
             }
 
-            createInstance(classKey);
-            return new Carrier<>(innerCarrier.where(COEFFECT.get(classKey), value));
+            return bind(value, classKey);
+        }
+
+        private <NextType> Carrier<NextType, Carrier<ValueType, Previous>>
+        bind(Object value, Class<?> classKey) {
+            if (CoeffectStats.active()) {
+                CoeffectStats.bind(classKey);
+            }
+            return new Carrier<>(innerCarrier.where(COEFFECT.get(classKey), value), classKey, this);
         }
 
         @DelegateContext
         public void run(Runnable op) {
+            if (CoeffectStats.active()) {
+                innerCarrier.where(EXTENT_DEPTH, enterExtent()).run(op);
+                return;
+            }
             innerCarrier.run(op);
         }
 
         @DelegateContext
         public <R, X extends Throwable> R call(ScopedValue.CallableOp<R, X> op) throws X {
+            if (CoeffectStats.active()) {
+                return innerCarrier.where(EXTENT_DEPTH, enterExtent()).call(op);
+            }
             return innerCarrier.call(op);
         }
-    }
 
-    private static void createInstance(Class<?> classKey) {
-        COEFFECT.putIfAbsent(classKey, ScopedValue.newInstance());
+        /**
+         * Records the depth of the extent that is about to start for every key bound by this carrier
+         *
+         * @return The depth of the new extent
+         */
+        private int enterExtent() {
+            var depth = EXTENT_DEPTH.orElse(0) + 1;
+            CoeffectStats.extent(depth);
+            for (Carrier<?, ?> carrier = this; carrier.previous != null; carrier = carrier.previous) {
+                CoeffectStats.extent(carrier.classKey, depth);
+            }
+            return depth;
+        }
     }
 }
 
@@ -0,0 +1,56 @@
+package io.github.holo314.coeffect.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The context types that modules declare ahead of time in {@value #RESOURCE}, one binary class name per line.<br>
+ * The resource is generated by the {@code ContextKeysProcessor} from the {@code @WithContext} declarations of a module, and {@link Coeffect#preload(ClassLoader)} creates the {@link ScopedValue} of every declared type up front, instead of on the first {@code Coeffect#get}/{@code Coeffect#with} of the type.
+ */
+public final class CoeffectKeys {
+    public static final String RESOURCE = "META-INF/coeffect/keys";
+
+    private CoeffectKeys() {}
+
+    /**
+     * @return The declared types in the resources of the loader, types that cannot be loaded are skipped
+     */
+    static List<Class<?>> declared(ClassLoader loader) {
+        var keys = new LinkedHashSet<Class<?>>();
+        try {
+            for (var resource : Collections.list(loader.getResources(RESOURCE))) {
+                for (var name : readNames(resource.openStream())) {
+                    try {
+                        keys.add(Class.forName(name, false, loader));
+                    } catch (ClassNotFoundException | LinkageError ignore) {
+                        // created lazily if it is ever used
+                    }
+                }
+            }
+        } catch (IOException ignore) {
+            // created lazily if it is ever used
+        }
+        return List.copyOf(keys);
+    }
+
+    private static Set<String> readNames(InputStream in)
+            throws IOException {
+        var names = new LinkedHashSet<String>();
+        try (var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (var line = reader.readLine(); line != null; line = reader.readLine()) {
+                line = line.strip();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    names.add(line);
+                }
+            }
+        }
+        return names;
+    }
+}
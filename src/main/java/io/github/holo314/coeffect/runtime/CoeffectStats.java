@@ -0,0 +1,151 @@
+package io.github.holo314.coeffect.runtime;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The implementation of {@link CoeffectStatsMXBean}.<br>
+ * All counters are striped ({@link LongAdder}/{@link LongAccumulator}) so concurrent extents on different cores do not contend on a single cache line.
+ * When disabled every hook costs a single volatile read.
+ */
+final class CoeffectStats
+        implements CoeffectStatsMXBean {
+    static final String ENABLE_PROPERTY = "io.github.holo314.coeffect.stats";
+    static final String OBJECT_NAME = "io.github.holo314.coeffect:type=CoeffectStats";
+
+    static final CoeffectStats INSTANCE = new CoeffectStats(Boolean.getBoolean(ENABLE_PROPERTY));
+
+    static {
+        if (INSTANCE.enabled) {
+            register();
+        }
+    }
+
+    /**
+     * Keyed by the name of the class, so the statistics do not keep the classes (and their class loaders) reachable
+     */
+    private final ConcurrentHashMap<String, KeyCounters> counters = new ConcurrentHashMap<>();
+    private final LongAccumulator maxExtentDepth = new LongAccumulator(Math::max, 0);
+    private volatile boolean enabled;
+    private volatile boolean registered = false;
+
+    private CoeffectStats(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Registers the bean in the platform MBean server, does nothing if it is already registered.<br>
+     * Called when the statistics are enabled for the first time, either by {@value #ENABLE_PROPERTY} or by {@link #setEnabled(boolean)}
+     */
+    static void register() {
+        if (INSTANCE.registered) {
+            return;
+        }
+        try {
+            var server = ManagementFactory.getPlatformMBeanServer();
+            var name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (InstanceAlreadyExistsException ignore) {
+            // registered concurrently
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+        INSTANCE.registered = true;
+    }
+
+    static boolean active() {
+        return INSTANCE.enabled;
+    }
+
+    static void bind(Class<?> classKey) {
+        INSTANCE.countersOf(classKey).binds.increment();
+    }
+
+    static void get(Class<?> classKey) {
+        INSTANCE.countersOf(classKey).gets.increment();
+    }
+
+    static void miss(Class<?> classKey) {
+        INSTANCE.countersOf(classKey).misses.increment();
+    }
+
+    static void fallback(Class<?> classKey) {
+        INSTANCE.countersOf(classKey).defaults.increment();
+    }
+
+    static void extent(Class<?> classKey, long depth) {
+        INSTANCE.countersOf(classKey).maxExtentDepth.accumulate(depth);
+    }
+
+    static void extent(long depth) {
+        INSTANCE.maxExtentDepth.accumulate(depth);
+    }
+
+    private KeyCounters countersOf(Class<?> classKey) {
+        var key = classKey.getTypeName();
+        var keyCounters = counters.get(key);
+        if (keyCounters == null) {
+            keyCounters = counters.computeIfAbsent(key, ignore -> new KeyCounters());
+        }
+        return keyCounters;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled) {
+            register();
+        }
+        this.enabled = enabled;
+    }
+
+    @Override
+    public List<KeyStatistics> getKeyStatistics() {
+        return counters.entrySet()
+                       .stream()
+                       .map(entry -> entry.getValue().snapshot(entry.getKey()))
+                       .sorted(Comparator.comparing(KeyStatistics::key))
+                       .toList();
+    }
+
+    @Override
+    public long getMaxExtentDepth() {
+        return maxExtentDepth.get();
+    }
+
+    @Override
+    public void reset() {
+        counters.clear();
+        maxExtentDepth.reset();
+    }
+
+    private static final class KeyCounters {
+        private final LongAdder binds = new LongAdder();
+        private final LongAdder gets = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder defaults = new LongAdder();
+        private final LongAccumulator maxExtentDepth = new LongAccumulator(Math::max, 0);
+
+        private KeyStatistics snapshot(String key) {
+            return new KeyStatistics(key,
+                                     binds.sum(),
+                                     gets.sum(),
+                                     misses.sum(),
+                                     defaults.sum(),
+                                     maxExtentDepth.get());
+        }
+    }
+}
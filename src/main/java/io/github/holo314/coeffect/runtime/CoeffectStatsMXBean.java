@@ -0,0 +1,37 @@
+package io.github.holo314.coeffect.runtime;
+
+import java.util.List;
+
+/**
+ * Management interface of the runtime usage statistics of {@link Coeffect}.<br>
+ * Statistics are opt-in, they are collected only while {@link #isEnabled()} is true. To enable them from startup run the JVM with {@code -Dio.github.holo314.coeffect.stats=true}, which also registers the bean in the platform MBean server under {@code io.github.holo314.coeffect:type=CoeffectStats}.
+ */
+public interface CoeffectStatsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return The counters of every key that was used since the statistics were enabled (or last {@link #reset()}), sorted by the name of the key
+     */
+    List<KeyStatistics> getKeyStatistics();
+
+    /**
+     * @return The deepest nesting of {@link Coeffect.Carrier#run}/{@link Coeffect.Carrier#call} extents that was observed
+     */
+    long getMaxExtentDepth();
+
+    void reset();
+
+    /**
+     * A snapshot of the counters of a single key
+     *
+     * @param key            The name of the class used as key
+     * @param binds          Number of times the key was bound with {@code Coeffect#with}
+     * @param gets           Number of reads of the key, either by {@code Coeffect#get} or the {@code Coeffect#getOr*} methods
+     * @param misses         Number of {@code Coeffect#get} calls that failed because the key was not bound
+     * @param defaults       Number of {@code Coeffect#getOr*} calls that fell back to the default value
+     * @param maxExtentDepth The deepest extent in which the key was bound
+     */
+    record KeyStatistics(String key, long binds, long gets, long misses, long defaults, long maxExtentDepth) {}
+}
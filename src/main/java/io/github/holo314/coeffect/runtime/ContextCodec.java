@@ -0,0 +1,81 @@
+package io.github.holo314.coeffect.runtime;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Writes the bound value of a context type into a {@link ByteBuffer} and reads it back, see {@link ContextWire}.
+ *
+ * @param <T> The context type
+ */
+public interface ContextCodec<T> {
+    /**
+     * Writes the value at the position of the buffer
+     *
+     * @throws java.nio.BufferOverflowException if the value does not fit in the remaining bytes of the buffer
+     */
+    void encode(T value, ByteBuffer out);
+
+    /**
+     * Reads a value written by {@link #encode}, the buffer is limited to the bytes of this value
+     *
+     * @return The value, never null
+     */
+    T decode(ByteBuffer in);
+
+    /**
+     * @return A codec that writes the value as a big-endian {@code long}
+     */
+    static <T> ContextCodec<T> ofLong(ToLongFunction<? super T> toLong, LongFunction<? extends T> fromLong) {
+        return new ContextCodec<>() {
+            @Override
+            public void encode(T value, ByteBuffer out) {
+                out.putLong(toLong.applyAsLong(value));
+            }
+
+            @Override
+            public T decode(ByteBuffer in) {
+                return fromLong.apply(in.getLong());
+            }
+        };
+    }
+
+    /**
+     * @return A codec that writes a string as UTF-8 directly into the buffer, without an intermediate byte array
+     */
+    static ContextCodec<String> utf8() {
+        return new ContextCodec<>() {
+            @Override
+            public void encode(String value, ByteBuffer out) {
+                for (var i = 0; i < value.length(); i++) {
+                    var c = value.charAt(i);
+                    if (c < 0x80) {
+                        out.put((byte)c);
+                    } else if (c < 0x800) {
+                        out.put((byte)(0xC0 | c >> 6))
+                           .put((byte)(0x80 | c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        var codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        out.put((byte)(0xF0 | codePoint >> 18))
+                           .put((byte)(0x80 | codePoint >> 12 & 0x3F))
+                           .put((byte)(0x80 | codePoint >> 6 & 0x3F))
+                           .put((byte)(0x80 | codePoint & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        out.put((byte)'?'); // unpaired surrogate, the same replacement String#getBytes uses
+                    } else {
+                        out.put((byte)(0xE0 | c >> 12))
+                           .put((byte)(0x80 | c >> 6 & 0x3F))
+                           .put((byte)(0x80 | c & 0x3F));
+                    }
+                }
+            }
+
+            @Override
+            public String decode(ByteBuffer in) {
+                return StandardCharsets.UTF_8.decode(in).toString();
+            }
+        };
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.holo314.coeffect.runtime;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A binary encoding of bound context, to propagate the context of a request to another process.<br>
+ * Every context type that should be propagated is registered with a numeric id and a {@link ContextCodec}, both ends must register the same ids for the same types:
+ * <pre>
+ *     var wire = ContextWire.empty()
+ *                           .register(1, Tenant.class, ContextCodec.ofLong(Tenant::id, Tenant::new))
+ *                           .register(2, String.class, ContextCodec.utf8());
+ *
+ *     // sender, inside the extent of the request
+ *     wire.encode(buffer);
+ *
+ *     // receiver
+ *     wire.decode(buffer)
+ *         .run(() -> handle(Coeffect.getOrNull(Tenant.class)));
+ * </pre>
+ * The encoding is a version byte ({@value #VERSION}), an unsigned short with the number of entries, and for every registered type that is bound an entry of an unsigned short id, an int with the length of the value and the value written by its codec.
+ * Numbers are written in the byte order of the buffer, which is big-endian unless it was changed.
+ * Entries with an unknown id are skipped, so a receiver may register fewer types than the sender.
+ * <p>
+ * A {@link ContextWire} is immutable, {@link #register} returns a new instance.
+ */
+public final class ContextWire {
+    public static final int VERSION = 1;
+    private static final int MAX_ID = 0xFFFF;
+    private static final ContextWire EMPTY = new ContextWire(new int[0], new Entry<?>[0]);
+
+    private final int[] ids; // sorted, ids[i] is the id of entries[i]
+    private final Entry<?>[] entries;
+
+    private ContextWire(int[] ids, Entry<?>[] entries) {
+        this.ids = ids;
+        this.entries = entries;
+    }
+
+    public static ContextWire empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param id    The id of the type in the encoding, between 0 and {@value #MAX_ID}
+     * @param type  The context type, as it is bound by {@code Coeffect#with}
+     * @param codec The codec of the values of the type
+     * @return A wire that also encodes the type
+     * @throws IllegalArgumentException if the id is out of range, or if the id or the type are already registered
+     */
+    public <T> ContextWire register(int id, Class<T> type, ContextCodec<T> codec) {
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("The id " + id + " is not between 0 and " + MAX_ID);
+        }
+        var index = Arrays.binarySearch(ids, id);
+        if (index >= 0) {
+            throw new IllegalArgumentException("The id " + id + " is already registered for " + entries[index].type().getName());
+        }
+        for (var entry : entries) {
+            if (entry.type() == type) {
+                throw new IllegalArgumentException(type.getName() + " is already registered with the id " + entry.id());
+            }
+        }
+
+        var insertion = -index - 1;
+        var newIds = new int[ids.length + 1];
+        var newEntries = new Entry<?>[entries.length + 1];
+        System.arraycopy(ids, 0, newIds, 0, insertion);
+        System.arraycopy(entries, 0, newEntries, 0, insertion);
+        newIds[insertion] = id;
+        newEntries[insertion] = new Entry<>(id, type, codec);
+        System.arraycopy(ids, insertion, newIds, insertion + 1, ids.length - insertion);
+        System.arraycopy(entries, insertion, newEntries, insertion + 1, entries.length - insertion);
+        return new ContextWire(newIds, newEntries);
+    }
+
+    /**
+     * Writes the values of the registered types that are bound in the current extent at the position of the buffer, types that are not bound are omitted.
+     *
+     * @return The number of bytes written
+     * @throws BufferOverflowException if the encoding does not fit in the remaining bytes of the buffer, in which case the position of the buffer is not changed
+     */
+    public int encode(ByteBuffer out) {
+        var start = out.position();
+        try {
+            out.put((byte)VERSION);
+            var countPosition = out.position();
+            out.putShort((short)0);
+            var count = 0;
+            for (var entry : entries) {
+                if (encodeEntry(entry, out)) {
+                    count++;
+                }
+            }
+            out.putShort(countPosition, (short)count);
+            return out.position() - start;
+        } catch (BufferOverflowException e) {
+            out.position(start);
+            throw e;
+        }
+    }
+
+    private static <T> boolean encodeEntry(Entry<T> entry, ByteBuffer out) {
+        var value = Coeffect.boundOrNull(entry.type());
+        if (value == null) {
+            return false;
+        }
+        out.putShort((short)entry.id());
+        var lengthPosition = out.position();
+        out.putInt(0); // patched once the length is known
+        entry.codec().encode(entry.type().cast(value), out);
+        out.putInt(lengthPosition, out.position() - lengthPosition - Integer.BYTES);
+        return true;
+    }
+
+    /**
+     * Reads an encoding written by {@link #encode} from the position of the buffer, and advances the position past it.<br>
+     * The types of the returned carrier are only known at runtime, so like {@link Coeffect#capture()} it does not satisfy the {@code @WithContext} requirements of the operations it runs.
+     *
+     * @return A carrier that binds every decoded value
+     * @throws IllegalArgumentException if the encoding has a different version or is malformed or truncated, or if a codec decodes null, in which case the position of the buffer is not changed
+     */
+    @SuppressWarnings("unchecked")
+    public Coeffect.Carrier<Void, Coeffect.Carrier<?, ?>> decode(ByteBuffer in) {
+        var start = in.position();
+        var limit = in.limit();
+        try {
+            requireRemaining(in, Byte.BYTES + Short.BYTES, "header");
+            var version = Byte.toUnsignedInt(in.get());
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported context wire version " + version + ", expected " + VERSION);
+            }
+            var count = Short.toUnsignedInt(in.getShort());
+            Coeffect.Carrier<?, ?> carrier = Coeffect.emptyCarrier();
+            for (var i = 0; i < count; i++) {
+                requireRemaining(in, Short.BYTES + Integer.BYTES, "header of entry " + i);
+                var id = Short.toUnsignedInt(in.getShort());
+                var length = in.getInt();
+                if (length < 0 || length > in.remaining()) {
+                    throw new IllegalArgumentException("The entry of the id " + id + " is truncated");
+                }
+                var end = in.position() + length;
+                var index = Arrays.binarySearch(ids, id);
+                if (index >= 0) {
+                    in.limit(end);
+                    try {
+                        carrier = decodeEntry(entries[index], in, carrier);
+                    } catch (BufferUnderflowException e) {
+                        throw new IllegalArgumentException("The entry of the id " + id + " is truncated", e);
+                    } finally {
+                        in.limit(limit);
+                    }
+                }
+                in.position(end);
+            }
+            // the type parameters of a carrier only exist at compiletime
+            return (Coeffect.Carrier<Void, Coeffect.Carrier<?, ?>>)carrier;
+        } catch (RuntimeException e) {
+            in.limit(limit).position(start);
+            throw e;
+        }
+    }
+
+    private static void requireRemaining(ByteBuffer in, int length, String part) {
+        if (in.remaining() < length) {
+            throw new IllegalArgumentException("The " + part + " of the context wire is truncated");
+        }
+    }
+
+    private static <T> Coeffect.Carrier<?, ?> decodeEntry(Entry<T> entry, ByteBuffer in, Coeffect.Carrier<?, ?> carrier) {
+        var value = entry.codec().decode(in);
+        if (value == null) { // a carrier cannot bind null
+            throw new IllegalArgumentException("The codec of " + entry.type().getName() + " decoded null");
+        }
+        return carrier.with(value, entry.type());
+    }
+
+    private record Entry<T>(int id, Class<T> type, ContextCodec<T> codec) {}
+}
@@ -0,0 +1,307 @@
+package io.github.holo314.coeffect.runtime;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * An executor that keeps tenants from starving each other under overload.<br>
+ * The tenant of a task is the value bound to the tenant key in the submitting extent. Every tenant has its own bounded lane, and a single dispatcher takes tasks from the lanes in weighted round-robin order: a tenant with weight {@code w} runs up to {@code w} tasks before the next tenant gets a turn.
+ * At most {@code maxConcurrency} tasks run at the same time, each on a new virtual thread, inside the bindings captured from the submitting extent (see {@link Coeffect#capture()}).
+ * <p>
+ * For example:
+ * <pre>
+ *     try (var scheduler = new TenantScheduler&lt;&gt;(Tenant.class, 64, 1_000, Tenant::weight)) {
+ *         Coeffect.with(tenant)
+ *                 .run(() -> scheduler.execute(() -> handle(Coeffect.get(Request.class))));
+ *     }
+ * </pre>
+ * A task is rejected with a {@link RejectedExecutionException} if the tenant key is not bound, if the lane of the tenant is full, or if the scheduler is closed.
+ * If the dispatcher fails (e.g. the weight function throws an {@link Error}), the scheduler closes itself and the pending tasks are dropped, the futures of {@link #submit(Callable)} complete exceptionally with a {@link RejectedExecutionException}.
+ *
+ * @param <T> The type of the tenant key
+ */
+public final class TenantScheduler<T>
+        implements Executor, AutoCloseable {
+    // the scheduler whose task runs in the current extent, a task cannot wait for the scheduler to close since it holds one of its permits
+    private static final ScopedValue<TenantScheduler<?>> WORKER = ScopedValue.newInstance();
+
+    private final Class<T> tenantKey;
+    private final int laneCapacity;
+    private final ToIntFunction<? super T> weights;
+    private final Semaphore permits;
+    private final ThreadFactory workers = Thread.ofVirtual().name("coeffect-tenant-worker-", 0).factory();
+    private final Thread dispatcher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // all guarded by lock
+    private final Map<T, Lane<T>> lanes = new HashMap<>();
+    private final ArrayDeque<Lane<T>> ready = new ArrayDeque<>(); // the lanes with pending tasks, in round-robin order
+    private int running = 0;
+    private boolean closed = false;
+    private Throwable failure = null; // what stopped the dispatcher, if it stopped before the scheduler was closed
+
+    /**
+     * @param tenantKey      The type whose binding identifies the tenant of a task
+     * @param maxConcurrency The maximal number of tasks that run at the same time
+     * @param laneCapacity   The maximal number of pending tasks of a single tenant
+     * @param weights        The number of tasks a tenant may run in every round, values below 1 count as 1, and a tenant whose weight cannot be computed gets weight 1
+     */
+    public TenantScheduler(Class<T> tenantKey, int maxConcurrency, int laneCapacity, ToIntFunction<? super T> weights) {
+        if (maxConcurrency < 1 || laneCapacity < 1) {
+            throw new IllegalArgumentException("maxConcurrency and laneCapacity must be positive");
+        }
+        this.tenantKey = tenantKey;
+        this.laneCapacity = laneCapacity;
+        this.weights = weights;
+        this.permits = new Semaphore(maxConcurrency);
+        this.dispatcher = Thread.ofVirtual().name("coeffect-tenant-dispatcher").start(this::dispatch);
+    }
+
+    /**
+     * Creates a scheduler where all tenants have the same weight
+     */
+    public TenantScheduler(Class<T> tenantKey, int maxConcurrency, int laneCapacity) {
+        this(tenantKey, maxConcurrency, laneCapacity, tenant -> 1);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        var captured = Coeffect.capture();
+        enqueue(new Task(() -> captured.run(task), ignore -> {}));
+    }
+
+    /**
+     * @return A future that completes with the result of the task, or exceptionally with the exception it threw
+     */
+    public <R> CompletableFuture<R> submit(Callable<R> task) {
+        var captured = Coeffect.capture();
+        var result = new CompletableFuture<R>();
+        enqueue(new Task(() -> {
+            try {
+                result.complete(captured.call(task::call));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }, result::completeExceptionally));
+        return result;
+    }
+
+    /**
+     * @return The number of pending tasks of the tenant
+     */
+    public int pending(T tenant) {
+        lock.lock();
+        try {
+            var lane = lanes.get(tenant);
+            return lane == null ? 0 : lane.tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Task task) {
+        var tenant = Coeffect.getOrNull(tenantKey);
+        if (tenant == null) {
+            throw new RejectedExecutionException("No " + tenantKey.getName() + " is bound in the submitting extent");
+        }
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new RejectedExecutionException("The dispatcher of the scheduler failed", failure);
+            }
+            if (closed) {
+                throw new RejectedExecutionException("The scheduler is closed");
+            }
+            var lane = lanes.computeIfAbsent(tenant, Lane::new);
+            if (lane.tasks.size() >= laneCapacity) {
+                throw new RejectedExecutionException("The lane of " + tenant + " is full");
+            }
+            lane.tasks.add(task);
+            if (lane.tasks.size() == 1) {
+                ready.addLast(lane);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the pending tasks to workers until the scheduler is closed and drained. If anything stops the dispatcher before that, the pending tasks are failed (see {@link #abandon(Throwable)}), so {@link #close()} does not wait for tasks that will never run
+     */
+    private void dispatch() {
+        try {
+            while (true) {
+                permits.acquire();
+                Task task = null;
+                try {
+                    lock.lock();
+                    try {
+                        while (ready.isEmpty() && !closed) {
+                            changed.await();
+                        }
+                        if (ready.isEmpty()) { // closed and drained
+                            return;
+                        }
+                        task = next();
+                        running++;
+                    } finally {
+                        lock.unlock();
+                    }
+                    start(task);
+                } finally {
+                    if (task == null) { // the permit was not handed to a worker
+                        permits.release();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            abandon(e);
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            abandon(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the scheduler and fails all the pending tasks, the running tasks are not affected
+     */
+    private void abandon(Throwable cause) {
+        lock.lock();
+        try {
+            if (!closed) {
+                failure = cause;
+                closed = true;
+            }
+            var rejection = new RejectedExecutionException("The dispatcher of the scheduler failed", cause);
+            for (var lane : ready) {
+                lane.tasks.forEach(task -> task.reject(rejection));
+            }
+            ready.clear();
+            lanes.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the task on a new worker, which releases the permit of the task when it is done. A task whose worker cannot be started is failed and its permit is released, so the dispatcher and {@link #close()} do not wait for it
+     */
+    private void start(Task task) {
+        try {
+            workers.newThread(() -> {
+                try {
+                    ScopedValue.where(WORKER, this).run(task.body());
+                } finally {
+                    finished();
+                }
+            }).start();
+        } catch (Throwable e) {
+            finished();
+            task.reject(new RejectedExecutionException("The worker of the task could not be started", e));
+        }
+    }
+
+    /**
+     * Takes the next task of the lane at the head of the round, the lane keeps its turn until it used all of its weight or has no more tasks.
+     * Must be called with the lock held and at least one ready lane
+     */
+    private Task next() {
+        var lane = ready.getFirst();
+        if (lane.credits == 0) {
+            lane.credits = weightOf(lane.tenant);
+        }
+        var task = lane.tasks.removeFirst();
+        lane.credits--;
+        if (lane.tasks.isEmpty()) {
+            ready.removeFirst();
+            lanes.remove(lane.tenant);
+        } else if (lane.credits == 0) {
+            ready.addLast(ready.removeFirst());
+        }
+        return task;
+    }
+
+    /**
+     * @return The weight of the tenant, or 1 if the weight function throws, so a faulty weight function cannot stop the dispatcher
+     */
+    private int weightOf(T tenant) {
+        try {
+            return Math.max(1, weights.applyAsInt(tenant));
+        } catch (RuntimeException e) {
+            return 1;
+        }
+    }
+
+    private void finished() {
+        permits.release();
+        lock.lock();
+        try {
+            running--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects new tasks and waits until all the pending and running tasks are done
+     *
+     * @throws IllegalStateException If called from a task of the scheduler or from its weight function, which would wait for itself
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread() == dispatcher || WORKER.isBound() && WORKER.get() == this) {
+            throw new IllegalStateException("A task of the scheduler cannot wait for the scheduler to close");
+        }
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+            while (!ready.isEmpty() || running > 0) {
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param body       Runs the task inside the captured bindings
+     * @param onRejected Notifies the submitter that the task will never run
+     */
+    private record Task(Runnable body, Consumer<? super RejectedExecutionException> onRejected) {
+        private void reject(RejectedExecutionException rejection) {
+            onRejected.accept(rejection);
+        }
+    }
+
+    private static final class Lane<T> {
+        private final T tenant;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private int credits = 0;
+
+        private Lane(T tenant) {
+            this.tenant = tenant;
+        }
+    }
+}
@@ -2,13 +2,41 @@ package test.io.github.holo314.coeffect;
 
 import io.github.holo314.coeffect.compiletime.annotations.WithContext;
 import io.github.holo314.coeffect.runtime.Coeffect;
+import io.github.holo314.coeffect.runtime.CoeffectKeys;
+import io.github.holo314.coeffect.runtime.CoeffectStatsMXBean;
+import io.github.holo314.coeffect.runtime.ContextCodec;
+import io.github.holo314.coeffect.runtime.ContextWire;
+import io.github.holo314.coeffect.runtime.TenantScheduler;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.StructuredTaskScope;
 import java.util.concurrent.StructuredTaskScope.Joiner;
 import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -94,4 +122,314 @@ public class CoeffectTest {
             fail(e);
         }
     }
+
+    @Test
+    public void stats()
+            throws MalformedObjectNameException {
+        var stats = Coeffect.stats();
+        stats.reset();
+        stats.setEnabled(true);
+        // enabling the statistics at runtime registers the bean as well
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("io.github.holo314.coeffect:type=CoeffectStats")));
+        try {
+            Coeffect.with("Holo")
+                    .run(() -> {
+                        assertEquals("Holo", Coeffect.get(String.class));
+                        assertNull(Coeffect.getOrNull(CharSequence.class));
+                        assertThrowsExactly(NoSuchElementException.class, () -> Coeffect.get(Integer.class));
+                        Coeffect.with(3)
+                                .run(() -> assertEquals(3, Coeffect.get(Integer.class)));
+                    });
+        } finally {
+            stats.setEnabled(false);
+        }
+
+        var byKey = stats.getKeyStatistics()
+                         .stream()
+                         .collect(Collectors.toMap(CoeffectStatsMXBean.KeyStatistics::key, Function.identity()));
+        assertEquals(new CoeffectStatsMXBean.KeyStatistics(String.class.getName(), 1, 1, 0, 0, 1), byKey.get(String.class.getName()));
+        assertEquals(new CoeffectStatsMXBean.KeyStatistics(CharSequence.class.getName(), 0, 1, 0, 1, 0), byKey.get(CharSequence.class.getName()));
+        assertEquals(new CoeffectStatsMXBean.KeyStatistics(Integer.class.getName(), 1, 2, 1, 0, 2), byKey.get(Integer.class.getName()));
+        assertEquals(2, stats.getMaxExtentDepth());
+    }
+
+    record Tenant(String name) {}
+
+    @Test
+    public void tenantScheduler()
+            throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var order = new CopyOnWriteArrayList<String>();
+        var weights = Map.of(new Tenant("A"), 2);
+        try (var scheduler = new TenantScheduler<>(Tenant.class, 1, 4, tenant -> weights.getOrDefault(tenant, 1))) {
+            assertThrowsExactly(RejectedExecutionException.class, () -> scheduler.execute(() -> {}));
+
+            // occupy the only slot, so the order of the queued tasks is decided by the lanes only
+            Coeffect.with(new Tenant("X"))
+                    .run(() -> scheduler.execute(() -> {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            fail(e);
+                        }
+                    }));
+            started.await();
+
+            for (var name : List.of("A", "B")) {
+                Coeffect.with(new Tenant(name))
+                        .with("request of " + name)
+                        .run(() -> {
+                            var count = name.equals("A") ? 4 : 2;
+                            for (var i = 1; i <= count; i++) {
+                                var task = name + i;
+                                scheduler.execute(() -> {
+                                    // the bindings of the submitting extent are visible after it ended
+                                    assertEquals(new Tenant(name), Coeffect.getOrNull(Tenant.class));
+                                    assertEquals("request of " + name, Coeffect.getOrNull(String.class));
+                                    order.add(task);
+                                });
+                            }
+                        });
+            }
+            assertEquals(4, scheduler.pending(new Tenant("A")));
+            Coeffect.with(new Tenant("A"))
+                    .run(() -> assertThrowsExactly(RejectedExecutionException.class, () -> scheduler.execute(() -> order.add("A5"))));
+            release.countDown();
+        }
+        assertEquals(List.of("A1", "A2", "B1", "A3", "A4", "B2"), order);
+
+        try (var scheduler = new TenantScheduler<>(Tenant.class, 2, 1)) {
+            var result = Coeffect.with(new Tenant("A"))
+                                 .call(() -> scheduler.submit(() -> Coeffect.getOrNull(Tenant.class)));
+            assertEquals(new Tenant("A"), result.join());
+            scheduler.close();
+            Coeffect.with(new Tenant("A"))
+                    .run(() -> assertThrowsExactly(RejectedExecutionException.class, () -> scheduler.execute(() -> {})));
+        }
+    }
+
+    @Test
+    public void tenantSchedulerFaultyWeights() {
+        var done = new CountDownLatch(4);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (var scheduler = new TenantScheduler<Tenant>(Tenant.class, 1, 4, tenant -> {
+                if (tenant.name().equals("B")) {
+                    throw new IllegalStateException("no weight for " + tenant);
+                }
+                return 2;
+            })) {
+                for (var name : List.of("A", "B")) {
+                    Coeffect.with(new Tenant(name))
+                            .run(() -> {
+                                scheduler.execute(done::countDown);
+                                scheduler.execute(done::countDown);
+                            });
+                }
+            }
+        });
+        assertEquals(0, done.getCount());
+    }
+
+    @Test
+    public void tenantSchedulerCloseFromTask() {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (var scheduler = new TenantScheduler<>(Tenant.class, 1, 4)) {
+                var result = Coeffect.with(new Tenant("A"))
+                                     .call(() -> scheduler.submit(() -> {
+                                         scheduler.close();
+                                         return null;
+                                     }));
+                var thrown = assertThrows(CompletionException.class, result::join);
+                assertInstanceOf(IllegalStateException.class, thrown.getCause());
+            }
+        });
+    }
+
+    @Test
+    public void tenantSchedulerFailedDispatcher() {
+        var failure = new AssertionError("no weight");
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            var started = new CountDownLatch(1);
+            var release = new CountDownLatch(1);
+            try (var scheduler = new TenantScheduler<Tenant>(Tenant.class, 1, 4, tenant -> {
+                if (tenant.name().equals("B")) {
+                    throw failure;
+                }
+                return 1;
+            })) {
+                // occupy the only slot, so the tasks of B are pending when the dispatcher fails
+                Coeffect.with(new Tenant("A"))
+                        .run(() -> scheduler.execute(() -> {
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                fail(e);
+                            }
+                        }));
+                started.await();
+                var pending = Coeffect.with(new Tenant("B"))
+                                      .call(() -> List.of(scheduler.submit(() -> "B1"), scheduler.submit(() -> "B2")));
+                release.countDown();
+
+                for (var result : pending) {
+                    var thrown = assertThrows(CompletionException.class, result::join);
+                    assertInstanceOf(RejectedExecutionException.class, thrown.getCause());
+                    assertSame(failure, thrown.getCause().getCause());
+                }
+                var rejected = Coeffect.with(new Tenant("A"))
+                                       .call(() -> assertThrowsExactly(RejectedExecutionException.class, () -> scheduler.execute(() -> {})));
+                assertSame(failure, rejected.getCause());
+            }
+        });
+    }
+
+    record RequestId(long value) {}
+
+    private static final ContextWire WIRE = ContextWire.empty()
+                                                       .register(2, String.class, ContextCodec.utf8())
+                                                       .register(1, RequestId.class, ContextCodec.ofLong(RequestId::value, RequestId::new));
+
+    @Test
+    public void wireInProcess() {
+        var buffer = ByteBuffer.allocate(64);
+        var written = Coeffect.with(new RequestId(42))
+                              .with("h\u00e9llo \uD83E\uDD8A")
+                              .with(7) // not registered
+                              .call(() -> WIRE.encode(buffer));
+        assertEquals(buffer.position(), written);
+        // version, count, and per entry an id, a length and the value
+        assertEquals(1 + 2 + (2 + 4 + 8) + (2 + 4 + 11), written);
+
+        buffer.flip();
+        WIRE.decode(buffer)
+            .run(() -> {
+                assertEquals(new RequestId(42), Coeffect.getOrNull(RequestId.class));
+                assertEquals("h\u00e9llo \uD83E\uDD8A", Coeffect.getOrNull(String.class));
+                assertNull(Coeffect.getOrNull(Integer.class));
+            });
+        assertFalse(buffer.hasRemaining());
+
+        // a receiver that does not know an id skips its entry
+        buffer.rewind();
+        ContextWire.empty()
+                   .register(2, String.class, ContextCodec.utf8())
+                   .decode(buffer)
+                   .run(() -> {
+                       assertNull(Coeffect.getOrNull(RequestId.class));
+                       assertEquals("h\u00e9llo \uD83E\uDD8A", Coeffect.getOrNull(String.class));
+                   });
+
+        // nothing bound
+        buffer.clear();
+        assertEquals(3, WIRE.encode(buffer));
+
+        var small = ByteBuffer.allocate(8);
+        Coeffect.with(new RequestId(42))
+                .run(() -> assertThrowsExactly(BufferOverflowException.class, () -> WIRE.encode(small)));
+        assertEquals(0, small.position());
+
+        assertThrowsExactly(IllegalArgumentException.class, () -> WIRE.decode(ByteBuffer.wrap(new byte[]{2, 0, 0})));
+        assertThrowsExactly(IllegalArgumentException.class, () -> WIRE.register(3, String.class, ContextCodec.utf8()));
+        assertThrowsExactly(IllegalArgumentException.class, () -> WIRE.register(1, Integer.class, ContextCodec.ofLong(Integer::longValue, l -> (int)l)));
+    }
+
+    @Test
+    public void wireTruncated() {
+        var buffer = ByteBuffer.allocate(64);
+        var written = Coeffect.with(new RequestId(42))
+                              .with("request")
+                              .call(() -> WIRE.encode(buffer));
+        var encoded = new byte[written];
+        buffer.flip().get(encoded);
+
+        // every proper prefix is rejected, and leaves the position where it was
+        for (var length = 0; length < written; length++) {
+            var truncated = ByteBuffer.allocate(1 + length);
+            truncated.put((byte)-1)
+                     .put(encoded, 0, length)
+                     .flip()
+                     .position(1);
+            assertThrowsExactly(IllegalArgumentException.class, () -> WIRE.decode(truncated), "prefix of " + length + " bytes");
+            assertEquals(1, truncated.position());
+            assertEquals(1 + length, truncated.limit());
+        }
+
+        // a value that is shorter than its codec expects
+        var shortValue = ByteBuffer.wrap(new byte[]{1, 0, 1, 0, 1, 0, 0, 0, 4, 0, 0, 0, 0});
+        assertThrowsExactly(IllegalArgumentException.class, () -> WIRE.decode(shortValue));
+        assertEquals(0, shortValue.position());
+    }
+
+    @Test
+    public void wireNullValue() {
+        var nullStrings = ContextWire.empty()
+                                     .register(2, String.class, new ContextCodec<>() {
+                                         @Override
+                                         public void encode(String value, ByteBuffer out) {
+                                             ContextCodec.utf8().encode(value, out);
+                                         }
+
+                                         @Override
+                                         public String decode(ByteBuffer in) {
+                                             return null;
+                                         }
+                                     });
+        var buffer = ByteBuffer.allocate(64);
+        Coeffect.with("request")
+                .run(() -> nullStrings.encode(buffer));
+        buffer.flip();
+
+        var thrown = assertThrowsExactly(IllegalArgumentException.class, () -> nullStrings.decode(buffer));
+        assertTrue(thrown.getMessage().contains(String.class.getName()));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void wireLoopback()
+            throws IOException {
+        try (var server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             var client = SocketChannel.open(server.getLocalAddress());
+             var accepted = server.accept()) {
+            var out = ByteBuffer.allocateDirect(256);
+            out.position(Integer.BYTES); // the frame length
+            Coeffect.with(new RequestId(-1))
+                    .with("request")
+                    .run(() -> WIRE.encode(out));
+            out.putInt(0, out.position() - Integer.BYTES)
+               .flip();
+            while (out.hasRemaining()) {
+                client.write(out);
+            }
+
+            var in = ByteBuffer.allocateDirect(256);
+            while (in.position() < Integer.BYTES || in.position() < Integer.BYTES + in.getInt(0)) {
+                assertNotEquals(-1, accepted.read(in));
+            }
+            in.flip()
+              .position(Integer.BYTES);
+            WIRE.decode(in)
+                .run(() -> {
+                    assertEquals(new RequestId(-1), Coeffect.getOrNull(RequestId.class));
+                    assertEquals("request", Coeffect.getOrNull(String.class));
+                });
+        }
+    }
+
+    @Test
+    public void preload(@TempDir Path classpath)
+            throws IOException {
+        var resource = classpath.resolve(CoeffectKeys.RESOURCE);
+        Files.createDirectories(resource.getParent());
+        Files.writeString(resource, """
+                # generated
+                java.lang.String
+                does.not.Exist
+                """);
+        try (var loader = new URLClassLoader(new URL[]{classpath.toUri().toURL()}, null)) {
+            assertEquals(List.of(String.class), Coeffect.preload(loader));
+        }
+    }
 }
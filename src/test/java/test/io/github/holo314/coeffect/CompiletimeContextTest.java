@@ -2,21 +2,50 @@ package test.io.github.holo314.coeffect;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.errorprone.BugCheckerRefactoringTestHelper;
 import com.google.errorprone.CompilationTestHelper;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+import io.github.holo314.coeffect.compiletime.annotations.ContextAccessor;
 import io.github.holo314.coeffect.compiletime.annotations.DelegateContext;
 import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+import io.github.holo314.coeffect.compiletime.index.ContextIndex;
+import io.github.holo314.coeffect.compiletime.index.ContextIndexProcessor;
+import io.github.holo314.coeffect.compiletime.index.ContextKeysProcessor;
+import io.github.holo314.coeffect.compiletime.plugin.CoeffectDeadBinding;
+import io.github.holo314.coeffect.compiletime.plugin.CoeffectJavacPlugin;
+import io.github.holo314.coeffect.compiletime.plugin.CoeffectLoopInvariant;
+import io.github.holo314.coeffect.compiletime.plugin.CoeffectOverDeclared;
 import io.github.holo314.coeffect.compiletime.plugin.CoeffectPlugin;
 import io.github.holo314.coeffect.runtime.Coeffect;
+import io.github.holo314.coeffect.runtime.CoeffectKeys;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CompiletimeContextTest {
     private static final String BASE = "test/io/github/holo314/coeffect/testdata/";
+    private static final String EXTRA_CHECKS = "-XepOpt:" + CoeffectPlugin.EXTRA_CHECKS_FLAG + "=true";
 
     @Test
     public void inheritance()
@@ -153,4 +182,573 @@ public class CompiletimeContextTest {
                 .withClasspath(Coeffect.class, Coeffect.Carrier.class, WithContext.class)
                 .doTest();
     }
+
+    /**
+     * The standalone plugin must report exactly the diagnostics expected from {@link CoeffectPlugin} by the test data
+     */
+    @Test
+    public void standalonePlugin()
+            throws IOException {
+        var marker = "// BUG: Diagnostic ";
+        for (var file : List.of("ContextTest.java", "InheritanceTest.java", "LambdaTest.java", "NonMethodTest.java")) {
+            var source0 = BASE + file;
+            var lines = Files.readAllLines(Path.of("src/test/java/" + source0));
+            var compilation = Compiler.javac()
+                                      .withOptions("-Xplugin:" + CoeffectJavacPlugin.NAME)
+                                      .compile(JavaFileObjects.forSourceLines(source0.replace('/', '.').replace(".java", ""), lines));
+
+            var expected = new TreeMap<Long, String>();
+            for (var i = 0; i < lines.size(); i++) {
+                var line = lines.get(i).strip();
+                if (line.startsWith(marker)) {
+                    var expectation = line.substring(marker.length());
+                    expected.put(i + 2L, expectation.startsWith("contains: ") ? expectation.substring("contains: ".length()) : "");
+                }
+            }
+            var actual = new TreeMap<Long, String>();
+            compilation.errors().forEach(error -> actual.put(error.getLineNumber(), error.getMessage(Locale.ROOT)));
+
+            assertEquals(expected.keySet(), actual.keySet(), file);
+            expected.forEach((line, expectation) -> {
+                assertTrue(actual.get(line).startsWith("[Coeffect] "), actual.get(line));
+                assertTrue(actual.get(line).contains(expectation), actual.get(line));
+            });
+        }
+    }
+
+    @Test
+    public void overDeclared()
+            throws IOException {
+        var source0 = BASE + "OverDeclaredTest.java";
+        var compilationHelper = CompilationTestHelper.newInstance(CoeffectOverDeclared.class, getClass());
+        // the helper is compiled first, so it is attributed when its callers are analyzed under any compile policy
+        compilationHelper.addSourceLines(BASE + "OverDeclaredHelper.java", """
+                        package test.io.github.holo314.coeffect.testdata;
+
+                        import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+                        import io.github.holo314.coeffect.runtime.Coeffect;
+
+                        final class OverDeclaredHelper {
+                            @WithContext({String.class, Integer.class})
+                            // BUG: Diagnostic contains: Method declares [java.lang.Integer, java.lang.String] but only requires [java.lang.String]
+                            static void help() {
+                                Coeffect.get(String.class);
+                            }
+                        }
+                        """)
+                .addSourceLines(
+                        source0,
+                        Files.readAllLines(Path.of("src/test/java/" + source0))
+                                .toArray(String[]::new)
+                )
+                .withClasspath(Coeffect.class, Coeffect.Carrier.class, WithContext.class, DelegateContext.class)
+                .setArgs(EXTRA_CHECKS)
+                .doTest();
+
+        BugCheckerRefactoringTestHelper.newInstance(CoeffectOverDeclared.class, getClass())
+                                       .addInputLines("Narrow.java", """
+                                               import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+                                               import io.github.holo314.coeffect.runtime.Coeffect;
+
+                                               final class Narrow {
+                                                   @WithContext({String.class, Integer.class, CharSequence.class})
+                                                   void foo() {
+                                                       Coeffect.get(String.class);
+                                                       Coeffect.get(CharSequence.class);
+                                                   }
+
+                                                   @WithContext(Integer.class)
+                                                   void bar() {}
+                                               }
+                                               """)
+                                       .addOutputLines("Narrow.java", """
+                                               import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+                                               import io.github.holo314.coeffect.runtime.Coeffect;
+
+                                               final class Narrow {
+                                                   @WithContext({String.class, CharSequence.class})
+                                                   void foo() {
+                                                       Coeffect.get(String.class);
+                                                       Coeffect.get(CharSequence.class);
+                                                   }
+
+                                                   void bar() {}
+                                               }
+                                               """)
+                                       .setArgs(EXTRA_CHECKS)
+                                       .doTest(BugCheckerRefactoringTestHelper.TestMode.AST_MATCH);
+    }
+
+    @Test
+    public void deadBinding()
+            throws IOException {
+        var source0 = BASE + "DeadBindingTest.java";
+        var compilationHelper = CompilationTestHelper.newInstance(CoeffectDeadBinding.class, getClass());
+        compilationHelper.addSourceLines(
+                        source0,
+                        Files.readAllLines(Path.of("src/test/java/" + source0))
+                                .toArray(String[]::new)
+                )
+                .withClasspath(Coeffect.class, Coeffect.Carrier.class, WithContext.class, DelegateContext.class)
+                .setArgs(EXTRA_CHECKS)
+                .doTest();
+
+        BugCheckerRefactoringTestHelper.newInstance(CoeffectDeadBinding.class, getClass())
+                                       .addInputLines("Shadowed.java", """
+                                               import io.github.holo314.coeffect.runtime.Coeffect;
+
+                                               class Shadowed {
+                                                   void run(Runnable task) {
+                                                       Coeffect.with("Holo").with(3).with("Lawrence").run(() -> task.run());
+                                                       Coeffect.with(name()).with("Lawrence").run(() -> task.run());
+                                                   }
+
+                                                   String name() {
+                                                       return "Holo";
+                                                   }
+                                               }
+                                               """)
+                                       .addOutputLines("Shadowed.java", """
+                                               import io.github.holo314.coeffect.runtime.Coeffect;
+
+                                               class Shadowed {
+                                                   void run(Runnable task) {
+                                                       Coeffect.with(3).with("Lawrence").run(() -> task.run());
+                                                       Coeffect.with(name()).with("Lawrence").run(() -> task.run());
+                                                   }
+
+                                                   String name() {
+                                                       return "Holo";
+                                                   }
+                                               }
+                                               """)
+                                       .setArgs(EXTRA_CHECKS)
+                                       .doTest();
+    }
+
+    @Test
+    public void loopInvariant()
+            throws IOException {
+        var source0 = BASE + "LoopInvariantTest.java";
+        var compilationHelper = CompilationTestHelper.newInstance(CoeffectLoopInvariant.class, getClass());
+        compilationHelper.addSourceLines(
+                        source0,
+                        Files.readAllLines(Path.of("src/test/java/" + source0))
+                                .toArray(String[]::new)
+                )
+                .withClasspath(Coeffect.class, Coeffect.Carrier.class, WithContext.class, DelegateContext.class, ContextAccessor.class)
+                .setArgs(EXTRA_CHECKS)
+                .doTest();
+
+        BugCheckerRefactoringTestHelper.newInstance(CoeffectLoopInvariant.class, getClass())
+                                       .addInputLines("Loop.java", """
+                                               import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+                                               import io.github.holo314.coeffect.runtime.Coeffect;
+
+                                               class Loop {
+                                                   @WithContext(String.class)
+                                                   int foo(int string) {
+                                                       var count = 0;
+                                                       while (count < Coeffect.get(String.class).length() * string) {
+                                                           count += Coeffect.get(String.class).length();
+                                                       }
+                                                       return count;
+                                                   }
+
+                                                   @WithContext(String.class)
+                                                   int bar() {
+                                                       var count = 0;
+                                                       do {
+                                                           count += Coeffect.get(String.class).length();
+                                                       } while (count < 10);
+                                                       return count;
+                                                   }
+                                               }
+                                               """)
+                                       .addOutputLines("Loop.java", """
+                                               import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+                                               import io.github.holo314.coeffect.runtime.Coeffect;
+
+                                               class Loop {
+                                                   @WithContext(String.class)
+                                                   int foo(int string) {
+                                                       var count = 0;
+                                                       var string2 = Coeffect.get(String.class);
+                                                       while (count < string2.length() * string) {
+                                                           count += string2.length();
+                                                       }
+                                                       return count;
+                                                   }
+
+                                                   @WithContext(String.class)
+                                                   int bar() {
+                                                       var count = 0;
+                                                       var string = Coeffect.get(String.class);
+                                                       do {
+                                                           count += string.length();
+                                                       } while (count < 10);
+                                                       return count;
+                                                   }
+                                               }
+                                               """)
+                                       .setArgs(EXTRA_CHECKS)
+                                       .doTest(BugCheckerRefactoringTestHelper.TestMode.AST_MATCH);
+
+        // the reads may never run, hoisting them would run them anyway
+        BugCheckerRefactoringTestHelper.newInstance(CoeffectLoopInvariant.class, getClass())
+                                       .addInputLines("MaybeLoop.java", """
+                                               import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+                                               import io.github.holo314.coeffect.runtime.Coeffect;
+
+                                               class MaybeLoop {
+                                                   @WithContext(String.class)
+                                                   int body(int bound) {
+                                                       var count = 0;
+                                                       while (count < bound) {
+                                                           count += Coeffect.get(String.class).length();
+                                                       }
+                                                       return count;
+                                                   }
+
+                                                   @WithContext(String.class)
+                                                   int branch(int bound) {
+                                                       var count = 0;
+                                                       do {
+                                                           if (count % 2 == 0) {
+                                                               count += Coeffect.get(String.class).length();
+                                                           }
+                                                           count++;
+                                                       } while (count < bound);
+                                                       return count;
+                                                   }
+
+                                                   @WithContext(String.class)
+                                                   int jump(int bound) {
+                                                       var count = 0;
+                                                       do {
+                                                           if (count > bound) {
+                                                               break;
+                                                           }
+                                                           count += Coeffect.get(String.class).length();
+                                                       } while (count < bound);
+                                                       return count;
+                                                   }
+                                               }
+                                               """)
+                                       .expectUnchanged()
+                                       .setArgs(EXTRA_CHECKS)
+                                       .doTest(BugCheckerRefactoringTestHelper.TestMode.AST_MATCH);
+    }
+
+    @Test
+    public void contextIndex()
+            throws IOException {
+        var source = JavaFileObjects.forSourceString("test.Library", """
+                package test;
+
+                import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+                public class Library {
+                    @WithContext({String.class, CharSequence.class})
+                    public void foo(java.util.List<String> names, int... values) {}
+
+                    @WithContext(Integer.class)
+                    public Library() {}
+
+                    public void bar() {}
+
+                    public static class Nested {
+                        @WithContext(Library.class)
+                        void baz(Nested[][] nested) {}
+                    }
+                }
+                """);
+        var compilation = Compiler.javac()
+                                  .withProcessors(new ContextIndexProcessor())
+                                  .withOptions("-A" + ContextIndexProcessor.OPTION + "=true")
+                                  .compile(source);
+        assertEquals(Compilation.Status.SUCCESS, compilation.status());
+
+        var file = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, "", ContextIndex.RESOURCE).orElseThrow();
+        ContextIndex index;
+        try (var in = file.openInputStream()) {
+            index = ContextIndex.read(ByteBuffer.wrap(in.readAllBytes()));
+        }
+
+        assertEquals(List.of("java.lang.String", "java.lang.CharSequence"), index.contextOf("test.Library", "foo(java.util.List,int[])"));
+        assertEquals(List.of("java.lang.Integer"), index.contextOf("test.Library", "<init>()"));
+        assertEquals(List.of(), index.contextOf("test.Library", "bar()"));
+        assertEquals(List.of("test.Library"), index.contextOf("test.Library$Nested", "baz(test.Library.Nested[][])"));
+        assertNull(index.contextOf("test.Unknown", "bar()"));
+        assertNull(index.contextOf("test.Library", "bar(int)"));
+    }
+
+    @Test
+    public void contextIndexResolution(@TempDir Path tempDir)
+            throws IOException, URISyntaxException {
+        var library = Compiler.javac()
+                              .compile(JavaFileObjects.forSourceString("test.Library", """
+                                      package test;
+
+                                      import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+                                      public class Library {
+                                          @WithContext(String.class)
+                                          public void foo() {}
+
+                                          public void bar() {}
+                                      }
+                                      """));
+        assertEquals(Compilation.Status.SUCCESS, library.status());
+        var files = new TreeMap<String, byte[]>();
+        for (var file : library.generatedFiles()) {
+            if (file.getKind() == JavaFileObject.Kind.CLASS) {
+                try (var in = file.openInputStream()) {
+                    files.put(file.toUri().getPath().replaceFirst("^/CLASS_OUTPUT/", ""), in.readAllBytes());
+                }
+            }
+        }
+        // the index disagrees with the annotations on purpose: bar() is only context dependent according to the index, and foo() is missing from it
+        files.put(ContextIndex.RESOURCE, indexOf(Map.of("test.Library", Map.of("bar()", List.of("java.lang.Integer")))));
+
+        // an index of another classpath entry that also lists test.Library must not be used for the classes of the library
+        var decoy = writeDirectory(tempDir.resolve("decoy"), Map.of(ContextIndex.RESOURCE, indexOf(Map.of("test.Library", Map.of("foo()", List.of(), "bar()", List.of("java.lang.Long"))))));
+
+        for (var libraryEntry : List.of(writeDirectory(tempDir.resolve("classes"), files), writeJar(tempDir.resolve("library.jar"), files))) {
+            var runtime = Path.of(Coeffect.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toFile();
+            var client = Compiler.javac()
+                                 .withClasspath(List.of(decoy.toFile(), libraryEntry.toFile(), runtime))
+                                 .withOptions("-processorpath", System.getProperty("java.class.path"),
+                                              "-Xplugin:" + CoeffectJavacPlugin.NAME)
+                                 .compile(JavaFileObjects.forSourceString("client.Client", """
+                                         package client;
+
+                                         import test.Library;
+
+                                         class Client {
+                                             void run(Library library) {
+                                                 library.bar();
+                                                 library.foo();
+                                             }
+                                         }
+                                         """));
+            var errors = new TreeMap<Long, String>();
+            client.errors().forEach(error -> errors.put(error.getLineNumber(), error.getMessage(Locale.ROOT)));
+            assertEquals(Set.of(7L, 8L), errors.keySet(), libraryEntry.toString());
+            assertTrue(errors.get(7L).contains("missing types: [java.lang.Integer]"), errors.get(7L)); // read from the index
+            assertTrue(errors.get(8L).contains("missing types: [java.lang.String]"), errors.get(8L)); // no entry, read from the annotation
+        }
+    }
+
+    private static byte[] indexOf(Map<String, Map<String, List<String>>> classes)
+            throws IOException {
+        var out = new ByteArrayOutputStream();
+        ContextIndex.write(classes, out);
+        return out.toByteArray();
+    }
+
+    private static Path writeDirectory(Path directory, Map<String, byte[]> files)
+            throws IOException {
+        for (var file : files.entrySet()) {
+            var target = directory.resolve(file.getKey());
+            Files.createDirectories(target.getParent());
+            Files.write(target, file.getValue());
+        }
+        return directory;
+    }
+
+    private static Path writeJar(Path jar, Map<String, byte[]> files)
+            throws IOException {
+        try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (var file : files.entrySet()) {
+                out.putNextEntry(new JarEntry(file.getKey()));
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    @Test
+    public void contextKeys()
+            throws IOException {
+        var source = JavaFileObjects.forSourceString("test.Service", """
+                package test;
+
+                import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+                public class Service {
+                    @WithContext({String.class, Service.Tenant.class})
+                    public void foo() {}
+
+                    @WithContext({String.class, int[].class})
+                    public void bar() {}
+
+                    public record Tenant(String id) {}
+                }
+                """);
+        var compilation = Compiler.javac()
+                                  .withProcessors(new ContextKeysProcessor())
+                                  .withOptions("-A" + ContextKeysProcessor.OPTION + "=true")
+                                  .compile(source);
+        assertEquals(Compilation.Status.SUCCESS, compilation.status());
+
+        var file = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, "", CoeffectKeys.RESOURCE).orElseThrow();
+        assertEquals("java.lang.String\ntest.Service$Tenant\n", file.getCharContent(true).toString());
+    }
+
+    @Test
+    public void checkCache(@TempDir Path cacheDir)
+            throws IOException {
+        var source0 = BASE + "LambdaTest.java";
+        var args = List.of("-XepOpt:" + CoeffectPlugin.CACHE_DIR_FLAG + "=" + cacheDir);
+        for (var build = 0; build < 2; build++) {
+            CompilationTestHelper.newInstance(CoeffectPlugin.class, getClass())
+                                 .addSourceLines(
+                                         source0,
+                                         Files.readAllLines(Path.of("src/test/java/" + source0))
+                                              .toArray(String[]::new)
+                                 )
+                                 .withClasspath(Coeffect.class, Coeffect.Carrier.class, WithContext.class)
+                                 .setArgs(args)
+                                 .doTest();
+            try (var entries = Files.list(cacheDir)) {
+                assertEquals(1, entries.count());
+            }
+        }
+
+        // units with violations are never cached
+        var source1 = BASE + "InheritanceTest.java";
+        CompilationTestHelper.newInstance(CoeffectPlugin.class, getClass())
+                             .addSourceLines(
+                                     source1,
+                                     Files.readAllLines(Path.of("src/test/java/" + source1))
+                                          .toArray(String[]::new)
+                             )
+                             .withClasspath(Coeffect.class, Coeffect.Carrier.class, WithContext.class)
+                             .setArgs(args)
+                             .expectErrorMessage("Inheritance", error -> error.startsWith("[Coeffect]"))
+                             .doTest();
+        try (var entries = Files.list(cacheDir)) {
+            assertEquals(1, entries.count());
+        }
+    }
+
+    @Test
+    public void checkCacheInvalidation(@TempDir Path cacheDir) {
+        var base = JavaFileObjects.forSourceString("dep.Base", """
+                package dep;
+
+                public class Base {
+                    public void log(Object value) {}
+                }
+                """);
+        var helper = JavaFileObjects.forSourceString("dep.Helper", """
+                package dep;
+
+                import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+                public class Helper {
+                    @WithContext(Integer.class)
+                    public static void help() {}
+                }
+                """);
+        var sub = JavaFileObjects.forSourceString("dep.Sub", """
+                package dep;
+
+                public class Sub extends Base {}
+                """);
+        var client = JavaFileObjects.forSourceString("client.Client", """
+                package client;
+
+                import dep.Helper;
+                import dep.Sub;
+                import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+                class Client {
+                    void log() {
+                        new Sub().log("value");
+                    }
+
+                    @WithContext(Integer.class)
+                    void help() {
+                        Helper.help();
+                    }
+                }
+                """);
+        var first = compileWithCache(cacheDir, base, helper, sub, client);
+        assertEquals(Compilation.Status.SUCCESS, first.status(), first.errors().toString());
+
+        // a more specific overload in the static type of the receiver, and a wider context of the callee
+        var subWithOverload = JavaFileObjects.forSourceString("dep.Sub", """
+                package dep;
+
+                import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+                public class Sub extends Base {
+                    @WithContext(String.class)
+                    public void log(String value) {}
+                }
+                """);
+        var widerHelper = JavaFileObjects.forSourceString("dep.Helper", """
+                package dep;
+
+                import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+
+                public class Helper {
+                    @WithContext({Integer.class, String.class})
+                    public static void help() {}
+                }
+                """);
+        var second = compileWithCache(cacheDir, base, widerHelper, subWithOverload, client);
+        var errors = new TreeMap<Long, String>();
+        second.errors().forEach(error -> errors.put(error.getLineNumber(), error.getMessage(Locale.ROOT)));
+        assertEquals(Set.of(9L, 14L), errors.keySet(), errors.toString());
+        assertTrue(errors.get(9L).contains("missing types: [java.lang.String]"), errors.get(9L));
+        assertTrue(errors.get(14L).contains("missing types: [java.lang.String]"), errors.get(14L));
+    }
+
+    @Test
+    public void checkCacheCarrierTypes(@TempDir Path cacheDir) {
+        var binder = """
+                package dep;
+
+                import io.github.holo314.coeffect.runtime.Coeffect;
+
+                public class Binder {
+                    public static Coeffect.Carrier<%1$s, Coeffect.Carrier<Void, Coeffect.Carrier<?, ?>>> bind() {
+                        return Coeffect.with(%2$s);
+                    }
+                }
+                """;
+        var client = JavaFileObjects.forSourceString("client.Client", """
+                package client;
+
+                import dep.Binder;
+                import io.github.holo314.coeffect.runtime.Coeffect;
+
+                class Client {
+                    void run() {
+                        Binder.bind().run(() -> Coeffect.get(String.class));
+                    }
+                }
+                """);
+        var first = compileWithCache(cacheDir, JavaFileObjects.forSourceString("dep.Binder", binder.formatted("String", "\"value\"")), client);
+        assertEquals(Compilation.Status.SUCCESS, first.status(), first.errors().toString());
+
+        // only the return type of the helper changes, the client and the context of every method stay the same
+        var second = compileWithCache(cacheDir, JavaFileObjects.forSourceString("dep.Binder", binder.formatted("Integer", "1")), client);
+        var errors = new TreeMap<Long, String>();
+        second.errors().forEach(error -> errors.put(error.getLineNumber(), error.getMessage(Locale.ROOT)));
+        assertEquals(Set.of(8L), errors.keySet(), errors.toString());
+        assertTrue(errors.get(8L).contains("missing types: [java.lang.String]"), errors.get(8L));
+    }
+
+    private static Compilation compileWithCache(Path cacheDir, JavaFileObject... sources) {
+        return Compiler.javac()
+                       .withOptions("-XDcompilePolicy=simple",
+                                    "--should-stop=ifError=FLOW",
+                                    "-Xplugin:ErrorProne -XepDisableAllChecks -Xep:Coeffect:ERROR -XepOpt:" + CoeffectPlugin.CACHE_DIR_FLAG + "=" + cacheDir)
+                       .compile(sources);
+    }
 }
@@ -0,0 +1,50 @@
+package test.io.github.holo314.coeffect;
+
+import io.github.holo314.coeffect.compiletime.plugin.ContextSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContextSetTest {
+    @Test
+    public void wordBoundaries() {
+        var set = ContextSet.of(63).with(64).with(128);
+        assertTrue(set.contains(63));
+        assertTrue(set.contains(64));
+        assertTrue(set.contains(128));
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(65));
+        assertFalse(set.contains(127));
+        assertFalse(set.contains(192)); // past the last word
+        assertArrayEquals(new int[]{63, 64, 128}, set.ids().toArray());
+
+        assertSame(set, set.with(64));
+        assertEquals(set, ContextSet.of(128).union(ContextSet.of(63).with(64)));
+        assertEquals(set, ContextSet.of(63).union(ContextSet.of(128)).union(ContextSet.of(64)));
+        assertTrue(set.containsAll(ContextSet.of(63).with(128)));
+        assertFalse(ContextSet.of(63).with(128).containsAll(set));
+
+        assertEquals(ContextSet.of(63).with(128), set.difference(ContextSet.of(64)));
+        assertEquals(ContextSet.of(64), set.difference(ContextSet.of(63).with(128)));
+        assertEquals(set, set.difference(ContextSet.of(0).with(256)));
+    }
+
+    @Test
+    public void noTrailingZeroWords() {
+        // removing the highest id must shrink the words, otherwise equal sets would have different arrays
+        var trimmed = ContextSet.of(0).with(128).difference(ContextSet.of(128));
+        assertEquals(ContextSet.of(0), trimmed);
+        assertEquals(ContextSet.of(0).hashCode(), trimmed.hashCode());
+
+        var empty = ContextSet.of(64).difference(ContextSet.of(64));
+        assertTrue(empty.isEmpty());
+        assertEquals(ContextSet.EMPTY, empty);
+        assertEquals(ContextSet.EMPTY.hashCode(), empty.hashCode());
+
+        // only the lower word is cleared, the set keeps its length
+        var upper = ContextSet.of(3).with(70).difference(ContextSet.of(3));
+        assertEquals(ContextSet.of(70), upper);
+        assertEquals(ContextSet.of(70).hashCode(), upper.hashCode());
+        assertNotEquals(ContextSet.of(6), upper);
+    }
+}
@@ -0,0 +1,133 @@
+package test.io.github.holo314.coeffect.benchmark;
+
+import com.google.errorprone.BaseErrorProneJavaCompiler;
+import com.google.errorprone.scanner.ScannerSupplier;
+import io.github.holo314.coeffect.compiletime.plugin.CoeffectJavacPlugin;
+import io.github.holo314.coeffect.compiletime.plugin.CoeffectPlugin;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles a {@link SyntheticProject} with plain javac, with Error Prone without any check, with Error Prone running only {@link CoeffectPlugin}, and with plain javac running {@link CoeffectJavacPlugin}, and reports the median wall time and allocation of every mode.
+ * The overhead of the checks themselves is the difference between the second and third modes, and the overhead of the standalone plugin is the difference between the first and last modes.<br>
+ * The benchmark is disabled by default, run it with:
+ * <pre>
+ *     mvn test -Dtest=CompiletimeBenchmark -Dcoeffect.benchmark=true [-Dcoeffect.benchmark.classes=5000 ...]
+ * </pre>
+ * See {@link SyntheticProject#fromSystemProperties()} for the shape parameters, and {@code coeffect.benchmark.warmup}/{@code coeffect.benchmark.iterations} for the number of compilations.
+ */
+@EnabledIfSystemProperty(named = "coeffect.benchmark", matches = "true")
+public class CompiletimeBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    enum Mode {
+        JAVAC(ToolProvider::getSystemJavaCompiler),
+        ERROR_PRONE(() -> new BaseErrorProneJavaCompiler(ScannerSupplier.fromBugCheckerClasses())),
+        COEFFECT(() -> new BaseErrorProneJavaCompiler(ScannerSupplier.fromBugCheckerClasses(CoeffectPlugin.class))),
+        STANDALONE(ToolProvider::getSystemJavaCompiler, "-Xplugin:" + CoeffectJavacPlugin.NAME);
+
+        private final Supplier<JavaCompiler> compiler;
+        private final List<String> options;
+
+        Mode(Supplier<JavaCompiler> compiler, String... options) {
+            this.compiler = compiler;
+            this.options = List.of(options);
+        }
+    }
+
+    record Measurement(Mode mode, long wallNanos, long allocatedBytes) {}
+
+    @Test
+    public void overhead()
+            throws IOException {
+        var project = SyntheticProject.fromSystemProperties();
+        var sources = project.generate();
+        var warmup = Integer.getInteger("coeffect.benchmark.warmup", 2);
+        var iterations = Integer.getInteger("coeffect.benchmark.iterations", 5);
+
+        var results = new ArrayList<Measurement>();
+        for (var mode : Mode.values()) {
+            for (var i = 0; i < warmup; i++) {
+                compile(mode, sources);
+            }
+            var measurements = new ArrayList<Measurement>();
+            for (var i = 0; i < iterations; i++) {
+                measurements.add(compile(mode, sources));
+            }
+            results.add(new Measurement(mode,
+                                        median(measurements.stream().map(Measurement::wallNanos).toList()),
+                                        median(measurements.stream().map(Measurement::allocatedBytes).toList())));
+        }
+
+        System.out.println("Coeffect compile-time benchmark: " + project + ", " + sources.size() + " sources");
+        System.out.printf("%-12s %12s %14s%n", "mode", "wall (ms)", "alloc (MiB)");
+        for (var result : results) {
+            System.out.printf("%-12s %12.1f %14.1f%n",
+                              result.mode(), result.wallNanos() / 1e6, result.allocatedBytes() / (1024.0 * 1024.0));
+        }
+        var errorProne = results.get(Mode.ERROR_PRONE.ordinal());
+        var coeffect = results.get(Mode.COEFFECT.ordinal());
+        System.out.printf("plugin overhead: %.1f ms, %.1f MiB%n",
+                          (coeffect.wallNanos() - errorProne.wallNanos()) / 1e6,
+                          (coeffect.allocatedBytes() - errorProne.allocatedBytes()) / (1024.0 * 1024.0));
+        var javac = results.get(Mode.JAVAC.ordinal());
+        var standalone = results.get(Mode.STANDALONE.ordinal());
+        System.out.printf("standalone plugin overhead: %.1f ms, %.1f MiB (Error Prone with the plugin: %.1f ms, %.1f MiB)%n",
+                          (standalone.wallNanos() - javac.wallNanos()) / 1e6,
+                          (standalone.allocatedBytes() - javac.allocatedBytes()) / (1024.0 * 1024.0),
+                          (coeffect.wallNanos() - javac.wallNanos()) / 1e6,
+                          (coeffect.allocatedBytes() - javac.allocatedBytes()) / (1024.0 * 1024.0));
+    }
+
+    private static Measurement compile(Mode mode, List<JavaFileObject> sources)
+            throws IOException {
+        var output = Files.createTempDirectory("coeffect-benchmark");
+        try {
+            var compiler = mode.compiler.get();
+            var diagnostics = new DiagnosticCollector<JavaFileObject>();
+            var fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8);
+            var options = new ArrayList<>(List.of("-d", output.toString(),
+                                                  "-classpath", System.getProperty("java.class.path"),
+                                                  "-proc:none",
+                                                  "-XDcompilePolicy=simple",
+                                                  "--should-stop=ifError=FLOW"));
+            options.addAll(mode.options);
+            var task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+
+            var allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+            var start = System.nanoTime();
+            var success = task.call();
+            var wall = System.nanoTime() - start;
+            var allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            assertTrue(success, () -> mode + " failed to compile the synthetic project: " + diagnostics.getDiagnostics());
+            fileManager.close();
+            return new Measurement(mode, wall, allocated);
+        } finally {
+            try (var files = Files.walk(output)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static long median(List<Long> values) {
+        return values.stream().sorted().toList().get(values.size() / 2);
+    }
+}
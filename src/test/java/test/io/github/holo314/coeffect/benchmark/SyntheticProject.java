@@ -0,0 +1,156 @@
+package test.io.github.holo314.coeffect.benchmark;
+
+import com.google.testing.compile.JavaFileObjects;
+
+import javax.tools.JavaFileObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Generates a synthetic project that compiles cleanly under the Coeffect plugin.
+ * <ul>
+ *     <li>{@code width} context types, {@code Ctx0...}, that are all required by the top of every hierarchy</li>
+ *     <li>Chains of {@code depth} classes that override a {@code @WithContext} method, every level narrowing the context by one type</li>
+ *     <li>An entry class per chain that binds all the context types in {@code nesting} nested {@code Carrier#run} lambdas</li>
+ *     <li>Plain classes that do not use Coeffect at all, {@code plainRatio} of all the classes</li>
+ * </ul>
+ *
+ * @param classes    The number of generated classes, excluding the context types
+ * @param depth      The depth of the inheritance chains
+ * @param nesting    The number of nested {@code Carrier#run} lambdas in every entry
+ * @param width      The number of context types
+ * @param plainRatio The ratio of classes that do not use Coeffect
+ */
+public record SyntheticProject(int classes, int depth, int nesting, int width, double plainRatio) {
+    public static final String PACKAGE = "bench";
+
+    public static SyntheticProject fromSystemProperties() {
+        return new SyntheticProject(
+                Integer.getInteger("coeffect.benchmark.classes", 2000),
+                Integer.getInteger("coeffect.benchmark.depth", 8),
+                Integer.getInteger("coeffect.benchmark.nesting", 6),
+                Integer.getInteger("coeffect.benchmark.width", 8),
+                Double.parseDouble(System.getProperty("coeffect.benchmark.plainRatio", "0.5"))
+        );
+    }
+
+    public List<JavaFileObject> generate() {
+        var sources = new ArrayList<JavaFileObject>();
+        for (var c = 0; c < width; c++) {
+            sources.add(source("Ctx" + c, "public record Ctx" + c + "(int value) {}"));
+        }
+
+        var chainSize = depth + 2; // interface, implementations and entry
+        var chains = Math.max(1, (int)(classes * (1 - plainRatio)) / chainSize);
+        for (var chain = 0; chain < chains; chain++) {
+            sources.add(source("Api" + chain, api(chain)));
+            for (var level = 0; level < depth; level++) {
+                sources.add(source(implName(chain, level), implementation(chain, level)));
+            }
+            sources.add(source("Entry" + chain, entry(chain)));
+        }
+
+        for (var plain = 0; plain < classes - chains * chainSize; plain++) {
+            sources.add(JavaFileObjects.forSourceString(PACKAGE + ".Plain" + plain, plain(plain)));
+        }
+        return sources;
+    }
+
+    private static JavaFileObject source(String className, String body) {
+        return JavaFileObjects.forSourceString(PACKAGE + "." + className, """
+                package %s;
+
+                import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+                import io.github.holo314.coeffect.runtime.Coeffect;
+
+                import java.util.ArrayList;
+
+                %s
+                """.formatted(PACKAGE, body));
+    }
+
+    private static String implName(int chain, int level) {
+        return "Impl" + chain + "_" + level;
+    }
+
+    /**
+     * @return The context of the given level of a chain, every level requires one type less than its parent
+     */
+    private String contextOf(int level) {
+        return IntStream.range(0, Math.max(1, width - level))
+                        .mapToObj(c -> "Ctx" + c + ".class")
+                        .collect(Collectors.joining(", ", "@WithContext({", "})"));
+    }
+
+    private String api(int chain) {
+        return """
+                public interface Api%d {
+                    %s
+                    int work(int seed);
+                }
+                """.formatted(chain, contextOf(0));
+    }
+
+    private String implementation(int chain, int level) {
+        var declaration = level == 0 ? "implements Api" + chain : "extends " + implName(chain, level - 1);
+        return """
+                public class %s %s {
+                    %s
+                    @Override
+                    public int work(int seed) {
+                        var values = new ArrayList<Integer>();
+                        for (var i = 0; i < 4; i++) {
+                            values.add(seed + i);
+                        }
+                        return values.size() + helper() + Coeffect.get(Ctx0.class).value();
+                    }
+
+                    %s
+                    private int helper() {
+                        return Coeffect.get(Ctx0.class).value();
+                    }
+                }
+                """.formatted(implName(chain, level), declaration, contextOf(level), contextOf(level));
+    }
+
+    private String entry(int chain) {
+        var body = "System.out.println(new %s().work(seed));".formatted(implName(chain, depth - 1));
+        for (var level = nesting - 1; level >= 0; level--) {
+            var bindings = new StringBuilder();
+            for (var c = level; c < width; c += nesting) {
+                bindings.append(bindings.isEmpty() ? "Coeffect" : "").append(".with(new Ctx").append(c).append("(seed))");
+            }
+            if (bindings.isEmpty()) {
+                bindings.append("Coeffect.with(seed)");
+            }
+            body = "%s.run(() -> {\n%s\n});".formatted(bindings, body);
+        }
+        return """
+                public class Entry%d {
+                    public void entry(int seed) {
+                        %s
+                    }
+                }
+                """.formatted(chain, body);
+    }
+
+    private static String plain(int index) {
+        return """
+                package %s;
+
+                import java.util.ArrayList;
+
+                public class Plain%d {
+                    private final ArrayList<String> names = new ArrayList<>();
+
+                    public int add(String name) {
+                        names.add(name);
+                        names.removeIf(String::isEmpty);
+                        return names.stream().mapToInt(String::length).sum();
+                    }
+                }
+                """.formatted(PACKAGE, index);
+    }
+}
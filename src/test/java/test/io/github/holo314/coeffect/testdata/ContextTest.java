@@ -29,6 +29,11 @@ public class ContextTest {
         // BUG: Diagnostic matches: Context1
         Coeffect.with(57).run(() -> new ContextTest1().foo('h'));
     }
+
+    public void literal(Class<String> key) {
+        // BUG: Diagnostic contains: Coeffect.get(...) used with non-class literal
+        Coeffect.get(key);
+    }
 }
 
 class ContextTest1 extends ContextTest {
@@ -0,0 +1,152 @@
+package test.io.github.holo314.coeffect.testdata;
+
+import io.github.holo314.coeffect.compiletime.annotations.DelegateContext;
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+import io.github.holo314.coeffect.runtime.Coeffect;
+
+import java.util.concurrent.Executor;
+
+public class DeadBindingTest {
+    public void used() {
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> {
+                    Coeffect.get(String.class);
+                    Coeffect.getOrNull(Integer.class);
+                });
+    }
+
+    public void throughContext() {
+        Coeffect.with("Holo")
+                .run(this::foo);
+        Coeffect.with("Holo")
+                .run(() -> foo());
+    }
+
+    public void dead() {
+        // BUG: Diagnostic contains: The types [java.lang.Integer] are bound but never read
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> Coeffect.get(String.class));
+    }
+
+    public void rebound() {
+        // BUG: Diagnostic contains: The types [java.lang.String] are bound but never read
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> {
+                    Coeffect.get(Integer.class);
+                    Coeffect.with("Lawrence")
+                            .run(() -> Coeffect.get(String.class));
+                });
+    }
+
+    public void boundTwice() {
+        // BUG: Diagnostic contains: The types [java.lang.String] are bound but never read
+        Coeffect.with("Holo")
+                .with("Lawrence")
+                .run(() -> Coeffect.get(String.class));
+    }
+
+    public void contextFreeCalls() {
+        // BUG: Diagnostic contains: The types [java.lang.Integer] are bound but never read
+        Coeffect.with("Holo")
+                .with(3)
+                .call(() -> Coeffect.get(String.class).length() + Math.max(1, 2));
+    }
+
+    public void readWithoutDeclaration() {
+        // helper reads String without declaring it
+        Coeffect.with("Holo")
+                .run(() -> helper());
+    }
+
+    public void captured(Executor executor, Runnable task) {
+        Coeffect.with("Holo")
+                .call(() -> Coeffect.capture());
+        Coeffect.with("Holo")
+                .run(() -> executor.execute(task));
+    }
+
+    public void implicitToString() {
+        Coeffect.with("Holo")
+                .with(3)
+                .call(() -> Coeffect.get(String.class) + this);
+    }
+
+    public void annotatedCallee(Service service) {
+        // BUG: Diagnostic contains: The types [java.lang.Integer] are bound but never read
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> service.handle());
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> service.handleBoth());
+        // BUG: Diagnostic contains: The types [java.lang.Integer] are bound but never read
+        Coeffect.with("Holo")
+                .with(3)
+                .run(service::handle);
+    }
+
+    public void delegatedLambda(Service service) {
+        // BUG: Diagnostic contains: The types [java.lang.String] are bound but never read
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> service.delegate(() -> Coeffect.get(Integer.class)));
+    }
+
+    public void throughSourceMethods() {
+        // BUG: Diagnostic contains: The types [java.lang.Integer] are bound but never read
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> readsString());
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> readsBoth(1));
+    }
+
+    public void shadowedWithUnknownReads(Runnable task) {
+        // BUG: Diagnostic contains: The types [java.lang.String] are bound but never read
+        Coeffect.with("Holo")
+                .with("Lawrence")
+                .run(() -> task.run());
+    }
+
+    public void notInspected(Runnable op) {
+        Coeffect.with("Holo")
+                .run(op);
+    }
+
+    @WithContext(String.class)
+    private static void readsString() {
+        Coeffect.get(String.class);
+    }
+
+    private static void readsBoth(int depth) {
+        if (depth > 0) {
+            readsBoth(depth - 1);
+        }
+        readsString();
+        Coeffect.getOrNull(Integer.class);
+    }
+
+    private void helper() {
+        Coeffect.getOrNull(String.class);
+    }
+
+    @WithContext(String.class)
+    public void foo() {
+        Coeffect.get(String.class);
+    }
+
+    interface Service {
+        @WithContext(String.class)
+        void handle();
+
+        @WithContext({String.class, Integer.class})
+        void handleBoth();
+
+        @DelegateContext
+        void delegate(Runnable op);
+    }
+}
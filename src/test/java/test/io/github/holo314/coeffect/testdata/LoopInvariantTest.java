@@ -0,0 +1,65 @@
+package test.io.github.holo314.coeffect.testdata;
+
+import io.github.holo314.coeffect.compiletime.annotations.ContextAccessor;
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+import io.github.holo314.coeffect.runtime.Coeffect;
+
+import java.util.List;
+
+public class LoopInvariantTest {
+    @WithContext({String.class, Integer.class})
+    public int invariant(List<String> names) {
+        var count = 0;
+        // BUG: Diagnostic contains: The loop reads [Coeffect.get(java.lang.String.class), test.io.github.holo314.coeffect.testdata.LoopInvariantTest#getInteger()]
+        for (var name : names) {
+            if (name.equals(Coeffect.get(String.class))) {
+                count += getInteger();
+            }
+            // nested loops are reported as a part of the outermost loop
+            for (var i = 0; i < name.length(); i++) {
+                count += Coeffect.get(String.class).length();
+            }
+        }
+        return count;
+    }
+
+    @WithContext(String.class)
+    public int rebinding(List<String> names) {
+        var count = 0;
+        for (var name : names) {
+            count += Coeffect.get(String.class).length();
+            count += Coeffect.with(name).call(() -> Coeffect.get(String.class).length());
+        }
+        return count;
+    }
+
+    @WithContext(String.class)
+    public int initializer() {
+        var count = 0;
+        for (var prefix = Coeffect.get(String.class); count < prefix.length(); count++) {
+            count += impure();
+        }
+        return count;
+    }
+
+    @SuppressWarnings("CoeffectLoopInvariant")
+    @WithContext(String.class)
+    public int suppressed(List<String> names) {
+        var count = 0;
+        for (var name : names) {
+            count += Coeffect.get(String.class).length();
+        }
+        return count;
+    }
+
+    @ContextAccessor
+    @WithContext(Integer.class)
+    public int getInteger() {
+        return Coeffect.get(Integer.class);
+    }
+
+    @WithContext(Integer.class)
+    public int impure() {
+        return Coeffect.get(Integer.class);
+    }
+}
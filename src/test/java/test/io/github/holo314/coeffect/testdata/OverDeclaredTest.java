@@ -0,0 +1,84 @@
+package test.io.github.holo314.coeffect.testdata;
+
+import io.github.holo314.coeffect.compiletime.annotations.WithContext;
+import io.github.holo314.coeffect.runtime.Coeffect;
+
+public class OverDeclaredTest {
+    {
+        OverDeclaredTest.exact();
+    }
+
+    // initializers are a part of the first constructor
+    @WithContext({String.class, CharSequence.class})
+    public OverDeclaredTest() {}
+
+    @WithContext({String.class, Integer.class})
+    // BUG: Diagnostic contains: Method declares [java.lang.Integer, java.lang.String] but only requires [java.lang.String]
+    public OverDeclaredTest(int ignore) {
+        Coeffect.get(String.class);
+    }
+
+    @WithContext({String.class, CharSequence.class})
+    static void exact() {
+        Coeffect.get(String.class);
+        Coeffect.get(CharSequence.class);
+    }
+
+    @WithContext({String.class, Integer.class})
+    // BUG: Diagnostic contains: Method declares [java.lang.Integer, java.lang.String] but only requires []
+    private void boundLocally() {
+        Coeffect.with("Holo")
+                .with(3)
+                .run(() -> Coeffect.get(String.class));
+    }
+
+    @WithContext(String.class)
+    // BUG: Diagnostic contains: Method declares [java.lang.String] but only requires []
+    static void nonDelegatedLambda() {
+        Runnable r = () -> {};
+        r.run();
+    }
+
+    // may be overridden, the context bounds the context of the overrides
+    @WithContext(String.class)
+    public void overridable() {}
+
+    // the declared context of an overridable callee is required, even if it requires nothing itself
+    @WithContext(String.class)
+    static void callsOverridable(OverDeclaredTest test) {
+        test.overridable();
+    }
+
+    // the actual requirement of the callee is used, so the whole chain is reported at once
+    @WithContext({String.class, Integer.class})
+    // BUG: Diagnostic contains: Method declares [java.lang.Integer, java.lang.String] but only requires [java.lang.String]
+    static void chainTop() {
+        chainBottom();
+    }
+
+    @WithContext({String.class, Integer.class})
+    // BUG: Diagnostic contains: Method declares [java.lang.Integer, java.lang.String] but only requires [java.lang.String]
+    private static void chainBottom() {
+        Coeffect.get(String.class);
+    }
+
+    @WithContext({String.class, Integer.class})
+    // BUG: Diagnostic contains: Method declares [java.lang.Integer, java.lang.String] but only requires [java.lang.String]
+    static void recursive(int depth) {
+        if (depth > 0) {
+            recursive(depth - 1);
+        }
+        Coeffect.get(String.class);
+    }
+
+    // the callee is declared in another unit of the compilation
+    @WithContext({String.class, Integer.class})
+    // BUG: Diagnostic contains: Method declares [java.lang.Integer, java.lang.String] but only requires [java.lang.String]
+    static void otherUnit() {
+        OverDeclaredHelper.help();
+    }
+
+    @SuppressWarnings("CoeffectOverDeclared")
+    @WithContext(String.class)
+    static void suppressed() {}
+}